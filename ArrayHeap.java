@@ -2,6 +2,7 @@ package datastructures.concrete;
 
 import datastructures.concrete.dictionaries.ChainedHashDictionary;
 import datastructures.interfaces.IDictionary;
+import datastructures.interfaces.IList;
 import datastructures.interfaces.IPriorityQueue;
 import misc.exceptions.EmptyContainerException;
 import misc.exceptions.InvalidElementException;
@@ -18,14 +19,47 @@ public class ArrayHeap<T extends Comparable<T>> implements IPriorityQueue<T> {
     // our private tests.
     private T[] heap;
     private int size;
+    // The position of every item in 'heap', or null if this heap was created
+    // without index tracking.
     private IDictionary<T, Integer> indices;
 
     // Feel free to add more fields and constants.
 
     public ArrayHeap() {
+        this(true);
+    }
+
+    /**
+     * Creates an empty heap. If 'trackIndices' is false, the heap does not keep
+     * track of where each item is stored: add, removeMin and peekMin become pure
+     * array operations, duplicate items are allowed, and contains, remove and
+     * replace throw UnsupportedOperationException.
+     */
+    public ArrayHeap(boolean trackIndices) {
         this.heap = makeArrayOfT(15);
         this.size = 0;
-        this.indices = new ChainedHashDictionary<>();
+        this.indices = trackIndices ? new ChainedHashDictionary<>() : null;
+    }
+
+    /**
+     * Creates a heap containing every item in the given list, building it
+     * bottom-up in linear time instead of adding the items one by one.
+     *
+     * @throws IllegalArgumentException  if the list or any of its items is null
+     * @throws InvalidElementException   if the list contains duplicate items
+     */
+    public ArrayHeap(IList<T> items) {
+        this(items, true);
+    }
+
+    /**
+     * Like ArrayHeap(IList), with or without index tracking.
+     *
+     * @see #ArrayHeap(boolean)
+     */
+    public ArrayHeap(IList<T> items, boolean trackIndices) {
+        this(trackIndices);
+        addAll(items);
     }
 
     /**
@@ -65,13 +99,36 @@ public class ArrayHeap<T extends Comparable<T>> implements IPriorityQueue<T> {
     private void percolateDown(int index) {
         while (index * NUM_CHILDREN + 1 < size) {  // has at least one child
             int smallest = findSmallestIndex(index);
-            if (heap[index].compareTo(heap[smallest]) > 0) {
-                swap(index, smallest);
+            if (heap[index].compareTo(heap[smallest]) <= 0) {
+                break; // the subtree below is already a heap
             }
+            swap(index, smallest);
             index = smallest;
         }
     }
 
+    /**
+     * Restores the heap property over the whole array by percolating every
+     * internal node down, starting from the last one (Floyd's algorithm).
+     */
+    private void heapify() {
+        for (int index = (size - 2) / NUM_CHILDREN; index >= 0 && size > 1; index--) {
+            percolateDown(index);
+        }
+    }
+
+    /**
+     * Grows the 'heap' array, if necessary, so it can hold at least
+     * 'capacity' items.
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity > heap.length) {
+            T[] newHeap = makeArrayOfT(Math.max(capacity, heap.length * 2));
+            System.arraycopy(heap, 0, newHeap, 0, size);
+            heap = newHeap;
+        }
+    }
+
     /**
      * A method stub that you may replace with a helper method for determining
      * which direction an index needs to percolate and percolating accordingly.
@@ -115,8 +172,10 @@ public class ArrayHeap<T extends Comparable<T>> implements IPriorityQueue<T> {
         T temp = heap[a];
         heap[a] = heap[b];
         heap[b] = temp;
-        indices.put(heap[a], a);
-        indices.put(heap[b], b);
+        if (indices != null) {
+            indices.put(heap[a], a);
+            indices.put(heap[b], b);
+        }
     }
 
     @Override
@@ -124,12 +183,14 @@ public class ArrayHeap<T extends Comparable<T>> implements IPriorityQueue<T> {
         if (size() == 0) {
             throw new EmptyContainerException();
         }
-        indices.remove(heap[0]);
+        if (indices != null) {
+            indices.remove(heap[0]);
+        }
         T temp = heap[0];
         heap[0] = heap[size-1];
         heap[size-1] = null;
         size--;
-        if (size == 1) {
+        if (size == 1 && indices != null) {
             indices.put(heap[0], 0);
         } else {
             percolate(0);
@@ -137,6 +198,35 @@ public class ArrayHeap<T extends Comparable<T>> implements IPriorityQueue<T> {
         return temp;
     }
 
+    /**
+     * Removes and returns the smallest item, adding the given item in its place.
+     * Equivalent to removeMin() followed by add(item), but only percolates once.
+     *
+     * @throws EmptyContainerException   if the heap is empty
+     * @throws IllegalArgumentException  if item is null
+     * @throws InvalidElementException   if item is already in the heap (only
+     *                                   checked when tracking indices)
+     */
+    public T replaceMin(T item) {
+        if (item == null) {
+            throw new IllegalArgumentException();
+        }
+        if (size() == 0) {
+            throw new EmptyContainerException();
+        }
+        T min = heap[0];
+        if (indices != null) {
+            if (!item.equals(min) && indices.containsKey(item)) {
+                throw new InvalidElementException();
+            }
+            indices.remove(min);
+            indices.put(item, 0);
+        }
+        heap[0] = item;
+        percolate(0);
+        return min;
+    }
+
     @Override
     public T peekMin() {
         if (size() == 0) {
@@ -150,27 +240,64 @@ public class ArrayHeap<T extends Comparable<T>> implements IPriorityQueue<T> {
         if (item == null) {
             throw new IllegalArgumentException();
         }
-        if (contains(item)) {
+        if (indices != null && contains(item)) {
             throw new InvalidElementException();
         }
-        if (size == heap.length) {
-            T[] newHeap = makeArrayOfT(size*2);
-            for (int i = 0; i < size; i++) {
-                newHeap[i] = heap[i];
-            }
-            heap = newHeap;
-        }
+        ensureCapacity(size + 1);
         heap[size] = item;
-        indices.put(item, size);
+        if (indices != null) {
+            indices.put(item, size);
+        }
         percolate(size);
         size++;
     }
 
+    /**
+     * Adds every item in the given list to this heap. The array is grown at
+     * most once and the heap is rebuilt bottom-up, which takes linear time in
+     * the combined size instead of one percolation per item.
+     *
+     * @throws IllegalArgumentException  if the list or any of its items is null
+     * @throws InvalidElementException   if an item is already in the heap, or
+     *                                   the list contains duplicate items (only
+     *                                   checked when tracking indices)
+     */
+    public void addAll(IList<T> items) {
+        if (items == null) {
+            throw new IllegalArgumentException();
+        }
+        ensureCapacity(size + items.size());
+        int oldSize = size;
+        for (T item : items) {
+            if (item == null || (indices != null && indices.containsKey(item))) {
+                // Undo the partial insertion so the heap is left unchanged.
+                for (int i = oldSize; i < size; i++) {
+                    if (indices != null) {
+                        indices.remove(heap[i]);
+                    }
+                    heap[i] = null;
+                }
+                size = oldSize;
+                if (item == null) {
+                    throw new IllegalArgumentException();
+                }
+                throw new InvalidElementException();
+            }
+            heap[size] = item;
+            if (indices != null) {
+                indices.put(item, size);
+            }
+            size++;
+        }
+        heapify();
+    }
+
     @Override
     public boolean contains(T item) {
         if (item == null){
             throw new IllegalArgumentException();
         }
+        checkTracking();
         return indices.containsKey(item);
     }
 
@@ -179,6 +306,7 @@ public class ArrayHeap<T extends Comparable<T>> implements IPriorityQueue<T> {
         if (item == null) {
             throw new IllegalArgumentException();
         }
+        checkTracking();
         if (!contains(item)) {
             throw new InvalidElementException();
         }
@@ -197,6 +325,7 @@ public class ArrayHeap<T extends Comparable<T>> implements IPriorityQueue<T> {
 
     @Override
     public void replace(T oldItem, T newItem) {
+        checkTracking();
         if (!contains(oldItem) || contains(newItem)) {
             throw new InvalidElementException();
         }
@@ -206,6 +335,12 @@ public class ArrayHeap<T extends Comparable<T>> implements IPriorityQueue<T> {
         percolate(index);
     }
 
+    private void checkTracking() {
+        if (indices == null) {
+            throw new UnsupportedOperationException("Heap was created without index tracking");
+        }
+    }
+
     @Override
     public int size() { return size;
     }
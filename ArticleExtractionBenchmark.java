@@ -0,0 +1,127 @@
+package search.models;
+
+import com.chimbori.crux.articles.ArticleExtractor;
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.interfaces.IList;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import search.Main;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Measures the per-page cost of extracting the readable article from a page,
+ * comparing the old path (parse with Jsoup, serialize the document back to
+ * HTML, have Crux parse that again) with the current one (hand the parsed
+ * document straight to Crux).
+ *
+ * Both variants include the initial Jsoup parse, since every uncached page
+ * pays for it. Usage:
+ *
+ *   ArticleExtractionBenchmark [data folder] [rounds]
+ *
+ * The data folder defaults to the one Main indexes.
+ */
+public class ArticleExtractionBenchmark {
+    private static final int WARMUP_ROUNDS = 1;
+
+    public static void main(String[] args) throws IOException {
+        File folder = new File(args.length > 0 ? args[0] : "data/" + Main.DATA_FOLDER_NAME);
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        IList<Page> pages = new DoubleLinkedList<>();
+        collectPages(folder, pages);
+        if (pages.isEmpty()) {
+            System.out.println("No pages found in " + folder);
+            return;
+        }
+        System.out.println(String.format("Loaded %d pages from %s", pages.size(), folder));
+
+        for (int round = 0; round < WARMUP_ROUNDS + rounds; round++) {
+            long reparse = time(pages, true);
+            long reuse = time(pages, false);
+            if (round >= WARMUP_ROUNDS) {
+                System.out.println(String.format(
+                        "Round %d: re-serialize and re-parse %.3f ms/page, reuse document %.3f ms/page",
+                        round - WARMUP_ROUNDS + 1,
+                        reparse / 1e6 / pages.size(),
+                        reuse / 1e6 / pages.size()));
+            }
+        }
+    }
+
+    /**
+     * Returns the number of nanoseconds taken to extract the article of every
+     * page, using either the old or the current path.
+     */
+    private static long time(IList<Page> pages, boolean reparse) throws IOException {
+        long start = System.nanoTime();
+        for (Page page : pages) {
+            InputStream stream = new ByteArrayInputStream(page.html);
+            Document document = Jsoup.parse(stream, null, page.uri);
+            ArticleExtractor extractor = reparse
+                    ? ArticleExtractor.with(page.uri, document.html())
+                    : ArticleExtractor.with(page.uri, document);
+            extractor.extractMetadata().extractContent().article();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void collectPages(File folder, IList<Page> pages) throws IOException {
+        File[] children = folder.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                collectPages(child, pages);
+            } else if (child.getName().endsWith(".html")) {
+                Page page = Page.read(child);
+                if (page != null) {
+                    pages.add(page);
+                }
+            }
+        }
+    }
+
+    /**
+     * The page URI and raw HTML of a local page, with its metadata header
+     * stripped.
+     */
+    private static class Page {
+        private static final String HEADER_END = "-->";
+
+        private final String uri;
+        private final byte[] html;
+
+        Page(String uri, byte[] html) {
+            this.uri = uri;
+            this.html = html;
+        }
+
+        static Page read(File file) throws IOException {
+            ByteBuffer contents = BinaryPageCache.readFile(file);
+            String text = new String(contents.array(), 0, contents.limit(), StandardCharsets.UTF_8);
+            int end = text.indexOf(HEADER_END);
+            if (!text.startsWith("<!-- METADATA") || end == -1) {
+                return null;
+            }
+            String uri = null;
+            for (String line : text.substring(0, end).split("\n")) {
+                if (line.startsWith("uri: ")) {
+                    uri = line.substring("uri: ".length()).trim();
+                }
+            }
+            if (uri == null) {
+                return null;
+            }
+            byte[] html = text.substring(end + HEADER_END.length()).getBytes(StandardCharsets.UTF_8);
+            return new Page(uri, html);
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package search.models;
+
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.concrete.dictionaries.ChainedHashDictionary;
+import datastructures.interfaces.IDictionary;
+import datastructures.interfaces.IList;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads and writes the binary page cache format.
+ *
+ * A cache file consists of a header (MAGIC, then VERSION) followed by a single
+ * page record:
+ *
+ *   string  page URI
+ *   string  title
+ *   string  blurb
+ *   varint  number of distinct words, followed by each distinct word as a string
+ *   varint  number of words, followed by each word as a varint index into the
+ *           distinct words above
+ *   varint  number of links, followed by each link as a string
+ *
+ * Strings are a varint byte length followed by that many bytes of UTF-8.
+ * Varints use 7 bits per byte, least significant group first, with the high
+ * bit set on every byte except the last.
+ *
+ * Storing each distinct word once and referring to it by index makes the file
+ * much smaller than the old text format, and reading it needs no tokenizing.
+ */
+class BinaryPageCache {
+    // The first byte is zero so a binary cache can never be mistaken for an
+    // old text cache, which starts with the page URI.
+    static final int MAGIC = 0x00575043;
+    static final int VERSION = 1;
+
+    private BinaryPageCache() {}
+
+    /**
+     * Returns true if the given buffer starts with the binary cache header
+     * (of any version). Does not change the buffer's position.
+     */
+    static boolean isBinary(ByteBuffer buffer) {
+        return buffer.remaining() >= 4 && buffer.getInt(buffer.position()) == MAGIC;
+    }
+
+    /**
+     * Reads the entire given file into a heap buffer through a FileChannel.
+     */
+    static ByteBuffer readFile(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("File too large: " + file);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) length);
+            while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+                // keep reading until the whole file is in memory
+            }
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    /**
+     * Writes the given page to the given file, replacing its contents.
+     *
+     * The page is first written to a temporary file in the same folder, which
+     * is then moved over the given one, so a crash while writing never leaves
+     * a truncated cache behind.
+     */
+    static void write(Webpage page, File file) throws IOException {
+        Path target = file.getAbsoluteFile().toPath();
+        Path temp = Files.createTempFile(target.getParent(), file.getName(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                writeRecord(page, out);
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(temp);
+            throw ex;
+        }
+    }
+
+    /**
+     * Reads the page stored in the given cache file contents, or returns null
+     * if they can't be used: written in a version of the format we don't
+     * understand, or truncated or otherwise malformed. Either way, the cache
+     * should be regenerated from the original page.
+     *
+     * @throws IOException  if the contents are not a binary page cache at all
+     */
+    static Webpage read(ByteBuffer buffer) throws IOException {
+        if (!isBinary(buffer)) {
+            throw new IOException("Not a binary page cache");
+        }
+        try {
+            buffer.getInt();
+            if (buffer.getInt() != VERSION) {
+                return null;
+            }
+            Webpage page = readRecord(buffer);
+            return buffer.hasRemaining() ? null : page;
+        } catch (IOException | BufferUnderflowException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes a single page record (without the file header).
+     */
+    static void writeRecord(Webpage page, DataOutput out) throws IOException {
+        WebpageSummary summary = page.getSummary();
+        writeString(page.getUri().toString(), out);
+        writeString(summary.getTitle(), out);
+        writeString(summary.getBlurb(), out);
+
+        IList<String> words = page.getWords();
+        IDictionary<String, Integer> indices = new ChainedHashDictionary<>();
+        IList<String> distinct = new DoubleLinkedList<>();
+        int[] wordIndices = new int[words.size()];
+        int next = 0;
+        for (String word : words) {
+            Integer index = indices.getOrDefault(word, null);
+            if (index == null) {
+                index = distinct.size();
+                indices.put(word, index);
+                distinct.add(word);
+            }
+            wordIndices[next] = index;
+            next++;
+        }
+        writeVarInt(distinct.size(), out);
+        for (String word : distinct) {
+            writeString(word, out);
+        }
+        writeVarInt(wordIndices.length, out);
+        for (int index : wordIndices) {
+            writeVarInt(index, out);
+        }
+
+        IList<URI> links = page.getLinks();
+        writeVarInt(links.size(), out);
+        for (URI link : links) {
+            writeString(link.toString(), out);
+        }
+    }
+
+    /**
+     * Reads a single page record (without the file header) starting at the
+     * buffer's current position, and leaves the position just past it.
+     */
+    static Webpage readRecord(ByteBuffer buffer) throws IOException {
+        URI pageUri = createUri(readString(buffer));
+        String title = readString(buffer);
+        String blurb = readString(buffer);
+
+        // Each distinct word is interned once; the words themselves are then
+        // just token ids.
+        TokenDictionary dictionary = TokenDictionary.shared();
+        int[] distinct = new int[readVarInt(buffer)];
+        for (int i = 0; i < distinct.length; i++) {
+            distinct[i] = dictionary.getOrAssignId(readString(buffer));
+        }
+        int numWords = readVarInt(buffer);
+        // Every word takes at least a byte, which bounds the capacity a
+        // corrupt count could ask for.
+        TokenList words = new TokenList(dictionary, Math.min(numWords, buffer.remaining()));
+        for (int i = 0; i < numWords; i++) {
+            int index = readVarInt(buffer);
+            if (index >= distinct.length) {
+                throw new IOException("Word index out of range");
+            }
+            words.addTokenId(distinct[index]);
+        }
+
+        IList<URI> links = new DoubleLinkedList<>();
+        int numLinks = readVarInt(buffer);
+        for (int i = 0; i < numLinks; i++) {
+            links.add(createUri(readString(buffer)));
+        }
+        return new Webpage(pageUri, links, words, title, blurb);
+    }
+
+    /**
+     * Reads just the page URI of the record starting at the buffer's current
+     * position.
+     */
+    static URI readRecordUri(ByteBuffer buffer) throws IOException {
+        return createUri(readString(buffer));
+    }
+
+    private static void writeString(String str, DataOutput out) throws IOException {
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(bytes.length, out);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) throws IOException {
+        int length = readVarInt(buffer);
+        if (length > buffer.remaining()) {
+            throw new IOException("String length out of range");
+        }
+        String out;
+        if (buffer.hasArray()) {
+            int start = buffer.arrayOffset() + buffer.position();
+            out = new String(buffer.array(), start, length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            out = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return out;
+    }
+
+    private static void writeVarInt(int value, DataOutput out) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(ByteBuffer buffer) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                if (value < 0) {
+                    throw new IOException("Negative varint");
+                }
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static URI createUri(String str) throws IOException {
+        try {
+            return new URI(str);
+        } catch (URISyntaxException ex) {
+            throw new IOException("Malformed URI in cache: " + str, ex);
+        }
+    }
+}
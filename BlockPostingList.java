@@ -0,0 +1,371 @@
+package search.analyzers;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The storage shared by CompressedPostingList and PositionalPostingList: a
+ * list of postings for a single term, in increasing document id order, each
+ * stored as the variable-byte gap from the previous document id followed by
+ * a payload of variable-byte integers that only the subclass understands.
+ *
+ * Postings are grouped into blocks of BLOCK_SIZE. For every block we also
+ * keep its last document id and byte offset, so a Cursor can skip whole
+ * blocks without decoding them.
+ *
+ * Subclasses append a posting by calling appendDocId(...) and then writing
+ * its payload with writeVarInt(...), and decode it in their Cursor's
+ * readPayload() and skipPayload().
+ *
+ * Postings can only be appended, in increasing document id order. This is not
+ * thread-safe: callers must not append while a cursor is in use.
+ */
+abstract class BlockPostingList {
+    static final int BLOCK_SIZE = 128;
+
+    private byte[] data;
+    private int length;
+    private int[] blockLastDocIds;
+    private int[] blockOffsets;
+    private int size;
+
+    BlockPostingList() {
+        this.data = new byte[16];
+        this.length = 0;
+        this.blockLastDocIds = new int[1];
+        this.blockOffsets = new int[1];
+        this.size = 0;
+    }
+
+    /**
+     * Releases any spare capacity left over from appending.
+     */
+    public void trimToSize() {
+        int blocks = blockCount();
+        if (data.length != length) {
+            byte[] newData = new byte[length];
+            System.arraycopy(data, 0, newData, 0, length);
+            data = newData;
+        }
+        if (blockOffsets.length != blocks) {
+            int[] newLastDocIds = new int[blocks];
+            System.arraycopy(blockLastDocIds, 0, newLastDocIds, 0, blocks);
+            blockLastDocIds = newLastDocIds;
+            int[] newOffsets = new int[blocks];
+            System.arraycopy(blockOffsets, 0, newOffsets, 0, blocks);
+            blockOffsets = newOffsets;
+        }
+    }
+
+    /**
+     * Returns the number of postings in this list.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of bytes used by this list's postings and skip data.
+     */
+    public long sizeInBytes() {
+        return data.length + 4L * blockLastDocIds.length + 4L * blockOffsets.length;
+    }
+
+    /**
+     * Writes this list (in the format described in IndexFile) to the given
+     * output.
+     */
+    void write(DataOutput out) throws IOException {
+        IndexFile.writeVarInt(out, size);
+        for (int block = 0; block < blockCount(); block++) {
+            IndexFile.writeVarInt(out, blockLastDocIds[block]);
+            IndexFile.writeVarInt(out, blockOffsets[block]);
+        }
+        IndexFile.writeVarInt(out, length);
+        out.write(data, 0, length);
+    }
+
+    /**
+     * Replaces this list's postings with those written by write(...), leaving
+     * it trimmed to size.
+     *
+     * Every posting is decoded once, to check that it lies within the data
+     * and agrees with the skip data, so a damaged list is reported here rather
+     * than failing in the middle of some later search.
+     *
+     * @throws IOException  if the data is malformed
+     */
+    void readFrom(ByteBuffer in) throws IOException {
+        int size = IndexFile.readVarInt(in);
+        // Every posting takes at least a byte, which bounds the arrays a
+        // corrupt size could ask for.
+        if (size < 0 || size > in.remaining()) {
+            throw new IOException("Malformed posting list");
+        }
+        int blocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int[] blockLastDocIds = new int[blocks];
+        int[] blockOffsets = new int[blocks];
+        for (int block = 0; block < blocks; block++) {
+            blockLastDocIds[block] = IndexFile.readVarInt(in);
+            blockOffsets[block] = IndexFile.readVarInt(in);
+            boolean increasing = block == 0
+                    ? blockOffsets[block] == 0
+                    : blockLastDocIds[block] > blockLastDocIds[block - 1]
+                            && blockOffsets[block] > blockOffsets[block - 1];
+            if (!increasing) {
+                throw new IOException("Malformed posting list skip data");
+            }
+        }
+        int length = IndexFile.readVarInt(in);
+        if (length < 0 || length > in.remaining() || (blocks > 0 && blockOffsets[blocks - 1] >= length)) {
+            throw new IOException("Malformed posting list");
+        }
+        this.data = new byte[length];
+        in.get(this.data);
+        this.length = length;
+        this.blockLastDocIds = blockLastDocIds;
+        this.blockOffsets = blockOffsets;
+        this.size = size;
+
+        try {
+            cursor().validate();
+        } catch (IndexOutOfBoundsException ex) {
+            throw new IOException("Malformed posting list", ex);
+        }
+    }
+
+    /**
+     * Returns the document id of the last posting, or -1 if there is none.
+     */
+    final int lastDocId() {
+        return size == 0 ? -1 : blockLastDocIds[(size - 1) / BLOCK_SIZE];
+    }
+
+    /**
+     * Starts appending a posting for the given document, whose payload must
+     * be written right after.
+     *
+     * @throws IllegalArgumentException  if docId is not larger than the last
+     *                                   posting's
+     */
+    final void appendDocId(int docId) {
+        int previous = lastDocId();
+        if (docId <= previous) {
+            throw new IllegalArgumentException();
+        }
+        int block = size / BLOCK_SIZE;
+        if (size % BLOCK_SIZE == 0) {
+            if (block == blockOffsets.length) {
+                blockOffsets = grow(blockOffsets, block + 1);
+                blockLastDocIds = grow(blockLastDocIds, block + 1);
+            }
+            blockOffsets[block] = length;
+        }
+        writeVarInt(docId - previous);
+        blockLastDocIds[block] = docId;
+        size++;
+    }
+
+    final void writeVarInt(int value) {
+        if (length + 5 > data.length) {
+            byte[] newData = new byte[Math.max(16, data.length * 2)];
+            System.arraycopy(data, 0, newData, 0, length);
+            data = newData;
+        }
+        while ((value & ~0x7F) != 0) {
+            data[length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        data[length++] = (byte) value;
+    }
+
+    /**
+     * Returns a new cursor positioned on the first posting.
+     */
+    abstract BlockCursor cursor();
+
+    private int blockCount() {
+        return (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    }
+
+    private static int[] grow(int[] array, int minLength) {
+        int[] newArray = new int[Math.max(minLength, array.length * 2)];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+
+    /**
+     * Iterates over the postings of a list, decoding them one at a time.
+     *
+     * Subclasses decode the payload of every posting moved to in
+     * readPayload(), which must consume it entirely or else leave skipPayload()
+     * to do so when moving on.
+     */
+    abstract class BlockCursor {
+        private int index;
+        private int docId;
+        // The offset of the next byte to decode.
+        int offset;
+
+        BlockCursor() {
+            this.index = -1;
+            this.offset = 0;
+            this.docId = -1;
+        }
+
+        /**
+         * Returns true if the cursor has moved past the last posting.
+         */
+        public boolean isExhausted() {
+            return index >= size;
+        }
+
+        /**
+         * Returns the document id of the current posting.
+         */
+        public int docId() {
+            return docId;
+        }
+
+        /**
+         * Moves to the next posting.
+         */
+        public void next() {
+            if (index >= 0 && index < size) {
+                skipPayload();
+            }
+            step();
+        }
+
+        /**
+         * Moves to the first posting (at or after the current one) whose
+         * document id is at least 'target'. Blocks that end before 'target'
+         * are skipped without being decoded.
+         *
+         * The block holding 'target' is found by galloping: checking the blocks
+         * 1, 2, 4, 8, ... after the current one, then binary searching between
+         * the last two checked. Advancing past d blocks thus takes O(log d)
+         * steps, which is what makes intersecting a short list with a long one
+         * cheap.
+         */
+        public void advance(int target) {
+            if (docId >= target) {
+                return;
+            }
+            int block = index / BLOCK_SIZE;
+            if (blockLastDocIds[block] < target) {
+                int blocks = blockCount();
+                int lo = block;
+                int hi = block + 1;
+                int step = 1;
+                while (hi < blocks && blockLastDocIds[hi] < target) {
+                    lo = hi;
+                    step *= 2;
+                    hi = lo + step;
+                }
+                hi = Math.min(hi, blocks);
+                // Binary search for the first block after lo that could hold 'target'.
+                while (hi - lo > 1) {
+                    int mid = (lo + hi) >>> 1;
+                    if (blockLastDocIds[mid] < target) {
+                        lo = mid;
+                    } else {
+                        hi = mid;
+                    }
+                }
+                if (hi == blocks) {
+                    index = size;
+                    docId = Integer.MAX_VALUE;
+                    return;
+                }
+                // Land just before the block's first posting, whose payload
+                // (at the block's offset) has not been read yet.
+                index = hi * BLOCK_SIZE - 1;
+                offset = blockOffsets[hi];
+                docId = blockLastDocIds[hi - 1];
+                step();
+            }
+            while (docId < target) {
+                next();
+            }
+        }
+
+        /**
+         * Moves through every posting of a fresh cursor, checking that they
+         * are in increasing document id order, that every block starts at
+         * its offset and ends with its last document id, and that the last
+         * posting ends the data.
+         *
+         * @throws IOException                if they don't
+         * @throws IndexOutOfBoundsException  if some posting runs past the data
+         */
+        final void validate() throws IOException {
+            int previous = -1;
+            while (index < size) {
+                if (docId <= previous) {
+                    throw new IOException("Posting list out of order");
+                }
+                int block = index / BLOCK_SIZE;
+                if ((index % BLOCK_SIZE == BLOCK_SIZE - 1 || index == size - 1)
+                        && docId != blockLastDocIds[block]) {
+                    throw new IOException("Posting list disagrees with its skip data");
+                }
+                previous = docId;
+                skipPayload();
+                if (index + 1 < size && (index + 1) % BLOCK_SIZE == 0 && offset != blockOffsets[block + 1]) {
+                    throw new IOException("Posting list disagrees with its skip data");
+                }
+                step();
+            }
+            if (offset != length) {
+                throw new IOException("Trailing data in posting list");
+            }
+        }
+
+        /**
+         * Decodes the current posting's payload, starting at 'offset'.
+         */
+        abstract void readPayload();
+
+        /**
+         * Moves 'offset' past whatever part of the current posting's payload
+         * readPayload() left undecoded.
+         */
+        abstract void skipPayload();
+
+        /**
+         * Decodes the variable-byte integer at 'offset', and moves past it.
+         */
+        final int readVarInt() {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[offset++];
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+
+        /**
+         * Moves past the variable-byte integer at 'offset' without decoding it.
+         */
+        final void skipVarInt() {
+            while (data[offset++] < 0) {
+                // Continuation byte.
+            }
+        }
+
+        private void step() {
+            index++;
+            if (index >= size) {
+                docId = Integer.MAX_VALUE;
+                return;
+            }
+            docId += readVarInt();
+            readPayload();
+        }
+    }
+}
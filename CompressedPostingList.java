@@ -0,0 +1,86 @@
+package search.analyzers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A compressed list of postings for a single term: every document
+ * id the term appears in, in increasing order, along with how many times it
+ * appears there.
+ *
+ * Postings are grouped into blocks of BLOCK_SIZE. Within a block, each posting
+ * is stored as two variable-byte integers: the gap from the previous document
+ * id, and the term's count. Gaps and counts are almost always small, so most
+ * postings take two bytes instead of the twelve an (int, double) pair would.
+ *
+ * Storing the raw count rather than the TF-IDF weight keeps the list exact:
+ * the weight is recomputed from the count, the document length and the term's
+ * IDF using the same arithmetic as IndexBuilder.weight(...).
+ *
+ * For every block we also keep its last document id and byte offset, so a
+ * Cursor can skip whole blocks without decoding them (see BlockPostingList).
+ *
+ * Postings can only be appended, in increasing document id order. This is not
+ * thread-safe: callers must not append while a cursor is in use.
+ */
+public class CompressedPostingList extends BlockPostingList {
+    /**
+     * Appends a posting.
+     *
+     * @throws IllegalArgumentException  if docId is not larger than the last
+     *                                   posting's, or count < 0
+     */
+    public void add(int docId, int count) {
+        if (docId <= lastDocId() || count < 0) {
+            throw new IllegalArgumentException();
+        }
+        appendDocId(docId);
+        writeVarInt(count);
+    }
+
+    /**
+     * Returns a new cursor positioned on the first posting.
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Reads a list written by write(...), leaving it trimmed to size.
+     *
+     * @throws IOException  if the data is malformed
+     */
+    static CompressedPostingList read(ByteBuffer in) throws IOException {
+        CompressedPostingList list = new CompressedPostingList();
+        list.readFrom(in);
+        return list;
+    }
+
+    /**
+     * Iterates over the postings of a list, decoding them one at a time.
+     */
+    public class Cursor extends BlockCursor {
+        private int count;
+
+        private Cursor() {
+            next();
+        }
+
+        /**
+         * Returns how many times the term appears in the current document.
+         */
+        public int count() {
+            return count;
+        }
+
+        @Override
+        void readPayload() {
+            count = readVarInt();
+        }
+
+        @Override
+        void skipPayload() {
+            // readPayload() already decoded the whole payload.
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package search.models;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A single file holding many parsed webpages, read through a memory mapping.
+ *
+ * Instead of one small cache file per page, a segment packs every page record
+ * (in the format described in BinaryPageCache) into one file:
+ *
+ *   int     SEGMENT_MAGIC
+ *   int     BinaryPageCache.VERSION
+ *   long    the fingerprint of the corpus the pages came from
+ *   ...     page records, back to back
+ *   long[]  the byte offset of every page record
+ *   long    the byte offset of the table above
+ *   int     the number of pages
+ *   int     SEGMENT_MAGIC
+ *
+ * Opening a segment only maps the file and reads its offset table; each page
+ * is decoded when it's asked for. Since the data lives in the OS page cache
+ * rather than on the heap, it is shared between restarts and by every process
+ * that maps the same file.
+ *
+ * WebpageLoader.loadAll(localUris, segmentFile, fingerprint) loads a whole
+ * corpus this way, writing the segment the first time.
+ */
+public class CorpusSegment {
+    static final int SEGMENT_MAGIC = 0x00575053;
+    private static final int HEADER_SIZE = 4 + 4 + 8;
+    private static final int FOOTER_SIZE = 8 + 4 + 4;
+
+    private final ByteBuffer data;
+    private final long fingerprint;
+    // The byte offset of every page record, followed by that of the offset
+    // table, where the last record ends.
+    private final int[] offsets;
+
+    private CorpusSegment(ByteBuffer data, long fingerprint, int[] offsets) {
+        this.data = data;
+        this.fingerprint = fingerprint;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Maps the segment stored in the given file.
+     *
+     * @throws IOException  if the file can't be read, is not a segment, was
+     *                      written with a different format version, or its
+     *                      offset table is corrupt
+     */
+    public static CorpusSegment open(File file) throws IOException {
+        MappedByteBuffer data;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length > Integer.MAX_VALUE) {
+                // A single mapping is limited to 2GB; larger corpora should be
+                // split across several segments.
+                throw new IOException("Segment too large to map: " + file);
+            }
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        }
+        try {
+            if (data.limit() < HEADER_SIZE + FOOTER_SIZE || data.getInt(0) != SEGMENT_MAGIC) {
+                throw new IOException("Not a corpus segment: " + file);
+            }
+            if (data.getInt(4) != BinaryPageCache.VERSION) {
+                throw new IOException("Unsupported segment version in " + file);
+            }
+            long fingerprint = data.getLong(8);
+            int footer = data.limit() - FOOTER_SIZE;
+            long tableOffset = data.getLong(footer);
+            int count = data.getInt(footer + 8);
+            if (data.getInt(footer + 12) != SEGMENT_MAGIC || count < 0
+                    || tableOffset < HEADER_SIZE || tableOffset + 8L * count != footer) {
+                throw new IOException("Corrupt segment footer in " + file);
+            }
+            // Every record must lie between the header and the offset table,
+            // after the one before it, so reading one never strays outside it.
+            int[] offsets = new int[count + 1];
+            long previous = HEADER_SIZE;
+            for (int i = 0; i < count; i++) {
+                long offset = data.getLong((int) tableOffset + 8 * i);
+                if (offset < previous || offset >= tableOffset) {
+                    throw new IOException("Corrupt segment offset table in " + file);
+                }
+                offsets[i] = (int) offset;
+                previous = offset + 1;
+            }
+            offsets[count] = (int) tableOffset;
+            return new CorpusSegment(data, fingerprint, offsets);
+        } catch (IndexOutOfBoundsException ex) {
+            throw new IOException("Corrupt segment: " + file, ex);
+        }
+    }
+
+    /**
+     * Returns the number of pages in this segment.
+     */
+    public int size() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * Returns the corpus fingerprint this segment was written with.
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Decodes and returns the page at the given index.
+     *
+     * This is safe to call from several threads at once.
+     *
+     * @throws IndexOutOfBoundsException  if index < 0 or index >= size()
+     * @throws RuntimeException           if the page's record is corrupt
+     */
+    public Webpage get(int index) {
+        try {
+            return read(index);
+        } catch (IOException ex) {
+            throw new RuntimeException("Could not load page " + index + " from segment", ex);
+        }
+    }
+
+    /**
+     * Like get(...), but reports a corrupt record as an IOException.
+     */
+    Webpage read(int index) throws IOException {
+        ByteBuffer record = recordAt(index);
+        try {
+            Webpage page = BinaryPageCache.readRecord(record);
+            if (record.hasRemaining()) {
+                throw new IOException("Trailing data in segment record " + index);
+            }
+            return page;
+        } catch (BufferUnderflowException ex) {
+            throw new IOException("Truncated segment record " + index, ex);
+        }
+    }
+
+    /**
+     * Returns the URI of the page at the given index, without decoding the
+     * rest of the page.
+     *
+     * @throws IndexOutOfBoundsException  if index < 0 or index >= size()
+     */
+    public URI getUri(int index) {
+        try {
+            return BinaryPageCache.readRecordUri(recordAt(index));
+        } catch (IOException | BufferUnderflowException ex) {
+            throw new RuntimeException("Could not load page " + index + " from segment", ex);
+        }
+    }
+
+    // Returns just the bytes of the given record, so a corrupt one can't
+    // be read past its end.
+    private ByteBuffer recordAt(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException();
+        }
+        ByteBuffer record = data.duplicate();
+        record.limit(offsets[index + 1]);
+        record.position(offsets[index]);
+        return record;
+    }
+
+    /**
+     * Writes pages to a new segment file, one at a time.
+     *
+     * The pages are written to a temporary file next to the given one, which
+     * replaces it atomically when the writer is closed, so a crash while
+     * writing never leaves a half-written segment behind.
+     */
+    public static class Writer implements Closeable {
+        private final File file;
+        private final File temporary;
+        private final DataOutputStream out;
+        private final ByteArrayOutputStream recordBytes;
+        private final DataOutputStream record;
+        private long position;
+        private long[] offsets;
+        private int size;
+
+        public Writer(File file, long fingerprint) throws IOException {
+            this.file = file;
+            this.temporary = new File(file.getPath() + ".tmp");
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+            this.recordBytes = new ByteArrayOutputStream();
+            this.record = new DataOutputStream(recordBytes);
+            this.offsets = new long[16];
+            this.size = 0;
+
+            try {
+                out.writeInt(SEGMENT_MAGIC);
+                out.writeInt(BinaryPageCache.VERSION);
+                out.writeLong(fingerprint);
+            } catch (IOException ex) {
+                out.close();
+                temporary.delete();
+                throw ex;
+            }
+            this.position = HEADER_SIZE;
+        }
+
+        /**
+         * Appends the given page to the segment.
+         */
+        public void add(Webpage page) throws IOException {
+            recordBytes.reset();
+            BinaryPageCache.writeRecord(page, record);
+            record.flush();
+
+            if (size == offsets.length) {
+                long[] newOffsets = new long[size * 2];
+                System.arraycopy(offsets, 0, newOffsets, 0, size);
+                offsets = newOffsets;
+            }
+            offsets[size] = position;
+            size++;
+            recordBytes.writeTo(out);
+            position += recordBytes.size();
+        }
+
+        /**
+         * Discards every page written so far, leaving the given file as it
+         * was.
+         */
+        public void abort() {
+            try {
+                out.close();
+            } catch (IOException ex) {
+                // We're deleting it anyway.
+            }
+            temporary.delete();
+        }
+
+        /**
+         * Writes the offset table and footer, closes the file, and moves it
+         * into place.
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                try {
+                    long tableOffset = position;
+                    for (int i = 0; i < size; i++) {
+                        out.writeLong(offsets[i]);
+                    }
+                    out.writeLong(tableOffset);
+                    out.writeInt(size);
+                    out.writeInt(SEGMENT_MAGIC);
+                } finally {
+                    out.close();
+                }
+                if (position + 8L * size + FOOTER_SIZE > Integer.MAX_VALUE) {
+                    throw new IOException("Segment too large to map: " + file);
+                }
+                Files.move(temporary.toPath(), file.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException ex) {
+                temporary.delete();
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Writes every given page to a new segment file, in iteration order,
+     * tagged with the given corpus fingerprint.
+     */
+    public static void write(File file, long fingerprint, Iterable<Webpage> pages) throws IOException {
+        Writer writer = new Writer(file, fingerprint);
+        try {
+            for (Webpage page : pages) {
+                writer.add(page);
+            }
+        } catch (IOException | RuntimeException ex) {
+            writer.abort();
+            throw ex;
+        }
+        writer.close();
+    }
+}
@@ -0,0 +1,87 @@
+package search.analyzers;
+
+import datastructures.concrete.dictionaries.ChainedHashDictionary;
+import datastructures.concrete.dictionaries.KVPair;
+import datastructures.interfaces.IDictionary;
+
+import java.util.Iterator;
+
+/**
+ * The statistics IDF scores are computed from: a number of documents, and how
+ * many of them contain each word.
+ *
+ * A TfIdfAnalyzer holding one shard of a larger corpus reports its own with
+ * getCorpusStatistics(). Adding up every shard's gives the statistics of the
+ * whole corpus, and handing those back to every shard with
+ * setGlobalStatistics(...) makes each shard score its pages exactly as a
+ * single analyzer over the whole corpus would.
+ *
+ * Iterating yields every word along with its document frequency.
+ */
+public class CorpusStatistics implements Iterable<KVPair<String, Integer>> {
+    private final IDictionary<String, Integer> frequencies;
+    private int documentCount;
+
+    public CorpusStatistics() {
+        this.frequencies = new ChainedHashDictionary<>();
+        this.documentCount = 0;
+    }
+
+    /**
+     * Counts the given number of additional documents.
+     *
+     * @throws IllegalArgumentException  if count < 0
+     */
+    public void addDocuments(int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException();
+        }
+        documentCount += count;
+    }
+
+    /**
+     * Counts the given word as appearing in 'frequency' additional documents.
+     *
+     * @throws IllegalArgumentException  if the word is null or frequency < 0
+     */
+    public void addTerm(String term, int frequency) {
+        if (term == null || frequency < 0) {
+            throw new IllegalArgumentException();
+        }
+        frequencies.put(term, frequencies.getOrDefault(term, 0) + frequency);
+    }
+
+    /**
+     * Adds every count of the given statistics to these, as if the documents
+     * they describe were added.
+     */
+    public void addAll(CorpusStatistics other) {
+        addDocuments(other.documentCount);
+        for (KVPair<String, Integer> pair : other.frequencies) {
+            addTerm(pair.getKey(), pair.getValue());
+        }
+    }
+
+    public int getDocumentCount() {
+        return documentCount;
+    }
+
+    /**
+     * Returns how many documents contain the given word (0 if it is unknown).
+     */
+    public int getDocumentFrequency(String term) {
+        return frequencies.getOrDefault(term, 0);
+    }
+
+    /**
+     * Returns the number of distinct words.
+     */
+    public int size() {
+        return frequencies.size();
+    }
+
+    @Override
+    public Iterator<KVPair<String, Integer>> iterator() {
+        return frequencies.iterator();
+    }
+}
@@ -0,0 +1,143 @@
+package search.analyzers;
+
+import datastructures.concrete.dictionaries.ChainedHashDictionary;
+import datastructures.interfaces.IDictionary;
+
+import java.net.URI;
+import java.util.Arrays;
+
+/**
+ * Assigns every indexed webpage a dense integer document id, starting from 0,
+ * in the order the pages are added.
+ *
+ * Per-document data (vectors, norms, postings) is stored in arrays indexed by
+ * these ids rather than in dictionaries keyed by URI.
+ *
+ * Ids are never reused: when a document is removed its id is only marked as
+ * such, and a re-added document gets a new id. The old id still remembers its
+ * URI, so a view of the index taken before the removal (see IdfSnapshot) can
+ * keep referring to it.
+ */
+public class DocDictionary {
+    // The most recent id of every URI ever added, removed or not.
+    private IDictionary<URI, Integer> ids;
+    private URI[] uris;
+    private boolean[] removed;
+    // The id the same URI had before this one, or -1.
+    private int[] previousIds;
+    private int size;
+    private int liveSize;
+
+    public DocDictionary() {
+        this.ids = new ChainedHashDictionary<>();
+        this.uris = new URI[16];
+        this.removed = new boolean[16];
+        this.previousIds = new int[16];
+        this.size = 0;
+        this.liveSize = 0;
+    }
+
+    /**
+     * Assigns the given URI the next free document id and returns it.
+     *
+     * @throws IllegalArgumentException  if the URI already has an id
+     */
+    public int add(URI uri) {
+        int previous = ids.getOrDefault(uri, -1);
+        if (previous != -1 && !removed[previous]) {
+            throw new IllegalArgumentException("Duplicate document: " + uri);
+        }
+        ensureCapacity();
+        uris[size] = uri;
+        previousIds[size] = previous;
+        ids.put(uri, size);
+        size++;
+        liveSize++;
+        return size - 1;
+    }
+
+    /**
+     * Hands out the next free document id without assigning it a URI, as if a
+     * document had been added and then removed, and returns it. Used when
+     * restoring a saved index, to keep the ids of later documents unchanged.
+     */
+    public int addRemoved() {
+        ensureCapacity();
+        removed[size] = true;
+        previousIds[size] = -1;
+        size++;
+        return size - 1;
+    }
+
+    /**
+     * Removes the given URI and returns the id it had.
+     *
+     * @throws IllegalArgumentException  if the URI has no id
+     */
+    public int remove(URI uri) {
+        int id = getId(uri);
+        if (id == -1) {
+            throw new IllegalArgumentException("Unknown document: " + uri);
+        }
+        removed[id] = true;
+        liveSize--;
+        return id;
+    }
+
+    /**
+     * Returns the document id of the given URI, or -1 if it has none.
+     */
+    public int getId(URI uri) {
+        int id = ids.getOrDefault(uri, -1);
+        return id != -1 && !removed[id] ? id : -1;
+    }
+
+    /**
+     * Returns the most recent document id less than 'end' the given URI was
+     * assigned, even if that document has been removed since, or -1 if there
+     * is none.
+     */
+    public int getId(URI uri, int end) {
+        int id = ids.getOrDefault(uri, -1);
+        while (id >= end) {
+            id = previousIds[id];
+        }
+        return id;
+    }
+
+    /**
+     * Returns the URI with the given document id, even if that document has
+     * been removed since, or null if the id was handed out by addRemoved().
+     *
+     * @throws IndexOutOfBoundsException  if no document ever had the given id
+     */
+    public URI getUri(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException();
+        }
+        return uris[id];
+    }
+
+    /**
+     * Returns the number of ids handed out so far, including those of removed
+     * documents. Every id is less than this number.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of documents that have not been removed.
+     */
+    public int liveSize() {
+        return liveSize;
+    }
+
+    private void ensureCapacity() {
+        if (size == uris.length) {
+            uris = Arrays.copyOf(uris, size * 2);
+            removed = Arrays.copyOf(removed, size * 2);
+            previousIds = Arrays.copyOf(previousIds, size * 2);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package datastructures.concrete;
+
+import misc.exceptions.EmptyContainerException;
+
+/**
+ * A fixed-capacity 4-heap of (double score, int id) pairs, stored in two
+ * parallel primitive arrays.
+ *
+ * Unlike ArrayHeap, this never boxes its elements and never allocates after
+ * construction, which makes it suitable for selecting the top k results out
+ * of a large number of candidates. It does not support contains, remove or
+ * replace.
+ *
+ * Pairs are ordered by score. Of two pairs with the same score, the one with
+ * the larger id is considered smaller, so that when this heap is used to keep
+ * the k largest pairs, ties are resolved in favor of the smaller id. A
+ * different order for ties can be given as an IdComparator.
+ */
+public class DoubleIntMinHeap {
+    private static final int NUM_CHILDREN = 4;
+
+    private final double[] scores;
+    private final int[] ids;
+    private final IdComparator ties;
+    private int size;
+
+    /**
+     * @throws IllegalArgumentException  if capacity < 0
+     */
+    public DoubleIntMinHeap(int capacity) {
+        this(capacity, null);
+    }
+
+    /**
+     * Creates a heap whose pairs with equal scores are ordered by the given
+     * comparator: of two such pairs, the one whose id compares larger is
+     * considered smaller. A null comparator orders ids numerically.
+     *
+     * @throws IllegalArgumentException  if capacity < 0
+     */
+    public DoubleIntMinHeap(int capacity, IdComparator ties) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.scores = new double[capacity];
+        this.ids = new int[capacity];
+        this.ties = ties;
+        this.size = 0;
+    }
+
+    /**
+     * Adds the given pair to this heap.
+     *
+     * @throws IllegalStateException  if the heap is full
+     */
+    public void add(double score, int id) {
+        if (size == scores.length) {
+            throw new IllegalStateException("Heap is full");
+        }
+        int index = size;
+        size++;
+        while (index != 0) {
+            int parent = (index - 1) / NUM_CHILDREN;
+            if (!less(score, id, scores[parent], ids[parent])) {
+                break;
+            }
+            scores[index] = scores[parent];
+            ids[index] = ids[parent];
+            index = parent;
+        }
+        scores[index] = score;
+        ids[index] = id;
+    }
+
+    /**
+     * If this heap is not full, adds the given pair. Otherwise, replaces the
+     * smallest pair with the given one if the given one is larger.
+     *
+     * Returns true if the pair was added.
+     */
+    public boolean offer(double score, int id) {
+        if (size < scores.length) {
+            add(score, id);
+            return true;
+        }
+        if (size == 0 || !less(scores[0], ids[0], score, id)) {
+            return false;
+        }
+        replaceMin(score, id);
+        return true;
+    }
+
+    /**
+     * Returns the score of the smallest pair.
+     *
+     * @throws EmptyContainerException  if the heap is empty
+     */
+    public double peekMinScore() {
+        if (size == 0) {
+            throw new EmptyContainerException();
+        }
+        return scores[0];
+    }
+
+    /**
+     * Returns the id of the smallest pair.
+     *
+     * @throws EmptyContainerException  if the heap is empty
+     */
+    public int peekMinId() {
+        if (size == 0) {
+            throw new EmptyContainerException();
+        }
+        return ids[0];
+    }
+
+    /**
+     * Removes the smallest pair and returns its id. Use peekMinScore() first
+     * if the score is needed.
+     *
+     * @throws EmptyContainerException  if the heap is empty
+     */
+    public int removeMin() {
+        if (size == 0) {
+            throw new EmptyContainerException();
+        }
+        int id = ids[0];
+        size--;
+        if (size > 0) {
+            percolateDown(0, scores[size], ids[size]);
+        }
+        return id;
+    }
+
+    /**
+     * Replaces the smallest pair with the given one. This is equivalent to,
+     * but cheaper than, removeMin() followed by add(...).
+     *
+     * @throws EmptyContainerException  if the heap is empty
+     */
+    public void replaceMin(double score, int id) {
+        if (size == 0) {
+            throw new EmptyContainerException();
+        }
+        percolateDown(0, score, id);
+    }
+
+    /**
+     * Removes every pair from this heap.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int capacity() {
+        return scores.length;
+    }
+
+    /**
+     * Places the given pair at the given index, moving smaller children up
+     * until the heap property holds again.
+     */
+    private void percolateDown(int index, double score, int id) {
+        while (index * NUM_CHILDREN + 1 < size) {
+            int smallest = index * NUM_CHILDREN + 1;
+            int last = Math.min(smallest + NUM_CHILDREN, size);
+            for (int child = smallest + 1; child < last; child++) {
+                if (less(scores[child], ids[child], scores[smallest], ids[smallest])) {
+                    smallest = child;
+                }
+            }
+            if (!less(scores[smallest], ids[smallest], score, id)) {
+                break;
+            }
+            scores[index] = scores[smallest];
+            ids[index] = ids[smallest];
+            index = smallest;
+        }
+        scores[index] = score;
+        ids[index] = id;
+    }
+
+    private boolean less(double scoreA, int idA, double scoreB, int idB) {
+        if (scoreA != scoreB) {
+            return scoreA < scoreB;
+        }
+        return ties == null ? idA > idB : ties.compare(idA, idB) > 0;
+    }
+
+    /**
+     * Compares two ids, without boxing them. Only consulted for pairs with
+     * equal scores, so it may be comparatively expensive.
+     */
+    public interface IdComparator {
+        int compare(int idA, int idB);
+    }
+}
@@ -0,0 +1,103 @@
+package search.analyzers;
+
+/**
+ * An immutable view of everything a TfIdfAnalyzer's scores depend on besides
+ * the raw term counts: the document frequencies and IDF scores of every term,
+ * the norm of every document, which documents were removed, and the per-term
+ * score upper bounds used for pruning. A snapshot covers the document ids
+ * below getDocumentCount(); pages added after it was taken are invisible to
+ * queries served from it, and pages removed (or replaced) after it was taken
+ * are still returned by them.
+ *
+ * Snapshots are numbered by increasing version, and never change once they
+ * are published, so any number of threads may read one without locking.
+ */
+final class IdfSnapshot {
+    private final long version;
+    private final int documentCount;
+    private final int liveDocuments;
+    private final int[] documentFrequencies;
+    private final double[] idfScores;
+    private final double[] norms;
+    private final boolean[] removed;
+    private final double[] termUpperBounds;
+    private final CorpusStatistics statistics;
+
+    /**
+     * The arrays are used directly (not copied), and must not be modified
+     * afterwards. The statistics are the global ones the IDF scores were
+     * computed from, or null if they come from the analyzer's own pages.
+     */
+    IdfSnapshot(long version, int documentCount, int liveDocuments, int[] documentFrequencies,
+                double[] idfScores, double[] norms, boolean[] removed, double[] termUpperBounds,
+                CorpusStatistics statistics) {
+        this.version = version;
+        this.documentCount = documentCount;
+        this.liveDocuments = liveDocuments;
+        this.documentFrequencies = documentFrequencies;
+        this.idfScores = idfScores;
+        this.norms = norms;
+        this.removed = removed;
+        this.termUpperBounds = termUpperBounds;
+        this.statistics = statistics;
+    }
+
+    long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the number of document ids this snapshot covers: documents with
+     * larger ids were added after it was taken.
+     */
+    int getDocumentCount() {
+        return documentCount;
+    }
+
+    /**
+     * Returns the number of pages that were indexed (and not removed) when this
+     * snapshot was taken.
+     */
+    int getLiveDocuments() {
+        return liveDocuments;
+    }
+
+    /**
+     * Returns the number of term ids this snapshot covers.
+     */
+    int getTermCount() {
+        return documentFrequencies.length;
+    }
+
+    int getDocumentFrequency(int termId) {
+        return termId < documentFrequencies.length ? documentFrequencies[termId] : 0;
+    }
+
+    /**
+     * Returns the IDF score of the given term. Only meaningful for terms with a
+     * non-zero document frequency.
+     */
+    double getIdf(int termId) {
+        return idfScores[termId];
+    }
+
+    double getNorm(int docId) {
+        return norms[docId];
+    }
+
+    /**
+     * Returns true if the given document had been removed when this snapshot
+     * was taken.
+     */
+    boolean isRemoved(int docId) {
+        return removed[docId];
+    }
+
+    double getTermUpperBound(int termId) {
+        return termUpperBounds[termId];
+    }
+
+    CorpusStatistics getStatistics() {
+        return statistics;
+    }
+}
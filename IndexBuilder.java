@@ -0,0 +1,371 @@
+package search.analyzers;
+
+import datastructures.interfaces.IList;
+import datastructures.interfaces.ISet;
+import search.models.TokenDictionary;
+import search.models.TokenList;
+import search.models.Webpage;
+
+import java.util.Arrays;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Computes the term dictionary, term counts, document frequencies and TF-IDF
+ * norms of a set of webpages, using several threads.
+ *
+ * The pages are split into contiguous shards of document ids and indexed in
+ * four steps:
+ *
+ * 1. (parallel) Each shard converts its pages' words to shard-local term ids
+ *    and counts how often each term occurs per page, and in how many pages.
+ * 2. (sequential) The shards' terms are merged into the global term
+ *    dictionary, in shard order, and their document frequencies are summed.
+ * 3. (parallel) Each shard rewrites its pages' local term ids as global ones.
+ * 4. (parallel) The norm of every page's TF-IDF vector is computed.
+ *
+ * Since every shard assigns local ids in the order terms first appear, merging
+ * the shards in order gives every term the same global id a single-threaded
+ * build would have. As a result, the norms are bit-for-bit the same for every
+ * parallelism level.
+ */
+class IndexBuilder {
+    // How many pages each shard covers.
+    private static final int DOCS_PER_SHARD = 256;
+
+    private final TermDictionary terms;
+    private final DocDictionary documents;
+    private final int[][] docTermIds;
+    private final int[][] docTermCounts;
+    private final int[] docLengths;
+    private final int[] documentFrequencies;
+    private final double[] norms;
+
+    /**
+     * @throws IllegalArgumentException  if parallelism < 1
+     */
+    IndexBuilder(ISet<Webpage> webpages, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.terms = new TermDictionary();
+        this.documents = new DocDictionary();
+
+        Webpage[] pages = new Webpage[webpages.size()];
+        for (Webpage page : webpages) {
+            pages[documents.add(page.getUri())] = page;
+        }
+
+        Shard[] shards = new Shard[(pages.length + DOCS_PER_SHARD - 1) / DOCS_PER_SHARD];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(i * DOCS_PER_SHARD, Math.min(pages.length, (i + 1) * DOCS_PER_SHARD));
+        }
+        int[][] docTermIds = new int[pages.length][];
+        int[][] docTermCounts = new int[pages.length][];
+        int[] docLengths = new int[pages.length];
+        this.docTermIds = docTermIds;
+        this.docTermCounts = docTermCounts;
+        this.docLengths = docLengths;
+        double[] norms = new double[pages.length];
+        this.norms = norms;
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new RangeTask(0, shards.length, 1, (lo, hi) -> {
+                for (int i = lo; i < hi; i++) {
+                    shards[i].countTerms(pages, docTermIds, docTermCounts, docLengths);
+                }
+            }));
+
+            this.documentFrequencies = mergeShards(shards);
+            double[] idf = computeIdfScores(documentFrequencies, pages.length);
+
+            pool.invoke(new RangeTask(0, shards.length, 1, (lo, hi) -> {
+                for (int i = lo; i < hi; i++) {
+                    shards[i].remapTerms(docTermIds, docTermCounts);
+                }
+            }));
+
+            pool.invoke(new RangeTask(0, pages.length, DOCS_PER_SHARD, (lo, hi) -> {
+                for (int docId = lo; docId < hi; docId++) {
+                    norms[docId] = norm(docTermIds[docId], docTermCounts[docId], docLengths[docId], idf);
+                }
+            }));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    TermDictionary getTerms() {
+        return terms;
+    }
+
+    DocDictionary getDocuments() {
+        return documents;
+    }
+
+    double[] getNorms() {
+        return norms;
+    }
+
+    /**
+     * Returns, for every document, its distinct term ids in increasing order.
+     */
+    int[][] getDocTermIds() {
+        return docTermIds;
+    }
+
+    /**
+     * Returns, for every document, how many times each of its terms appears in
+     * it (parallel to getDocTermIds()).
+     */
+    int[][] getDocTermCounts() {
+        return docTermCounts;
+    }
+
+    /**
+     * Returns the number of words in every document.
+     */
+    int[] getDocLengths() {
+        return docLengths;
+    }
+
+    /**
+     * Returns the number of documents containing every term, by term id.
+     */
+    int[] getDocumentFrequencies() {
+        return documentFrequencies;
+    }
+
+    /**
+     * Adds every shard's terms to the global term dictionary, in shard order,
+     * and returns the number of documents containing each term, by global id.
+     */
+    private int[] mergeShards(Shard[] shards) {
+        for (Shard shard : shards) {
+            shard.localToGlobal = new int[shard.localTerms.size()];
+            for (int localId = 0; localId < shard.localToGlobal.length; localId++) {
+                shard.localToGlobal[localId] = terms.getOrAssignId(shard.localTerms.getTerm(localId));
+            }
+        }
+        int[] documentFrequencies = new int[terms.size()];
+        for (Shard shard : shards) {
+            for (int localId = 0; localId < shard.localToGlobal.length; localId++) {
+                documentFrequencies[shard.localToGlobal[localId]] += shard.localDocumentFrequencies[localId];
+            }
+            shard.localTerms = null;
+        }
+        return documentFrequencies;
+    }
+
+    /**
+     * Returns the IDF score of every term, given how many documents contain
+     * it and how many documents there are.
+     */
+    static double[] computeIdfScores(int[] documentFrequencies, int totalDocs) {
+        double totalDoc = totalDocs;
+        double[] idf = new double[documentFrequencies.length];
+        for (int termId = 0; termId < idf.length; termId++) {
+            idf[termId] = Math.log(totalDoc / documentFrequencies[termId]);
+        }
+        return idf;
+    }
+
+    /**
+     * Returns the norm of the TF-IDF vector of a document with the given
+     * distinct term ids (in increasing order) and counts, out of 'length'
+     * words overall. Every TF-IDF weight in the index is computed with this
+     * same arithmetic, so weights and norms agree bit for bit.
+     */
+    static double norm(int[] termIds, int[] counts, int length, double[] idfScores) {
+        double output = 0.0;
+        for (int i = 0; i < termIds.length; i++) {
+            double weight = weight(counts[i], length, idfScores[termIds[i]]);
+            output += weight * weight;
+        }
+        return Math.sqrt(output);
+    }
+
+    /**
+     * Returns the TF-IDF weight of a term occurring 'count' times in a document
+     * of 'length' words.
+     */
+    static double weight(int count, int length, double idf) {
+        double tfScore = count / (double) length;
+        return tfScore * idf;
+    }
+
+    /**
+     * Converts the given words to ids using the given term dictionary (assigning
+     * new ids as needed). Returns the distinct term ids, in increasing order,
+     * and how often each one occurs, as {termIds, counts}.
+     */
+    static int[][] countTerms(IList<String> words, TermDictionary dictionary) {
+        int[] ids = termIds(words, dictionary);
+        return countIds(ids, ids.length);
+    }
+
+    /**
+     * Returns the term id of every one of the given words, in order, using
+     * the given term dictionary (assigning new ids, in the order the words
+     * first appear, as needed).
+     */
+    static int[] termIds(IList<String> words, TermDictionary dictionary) {
+        if (words instanceof TokenList) {
+            return termIds((TokenList) words, dictionary);
+        }
+        int[] ids = new int[words.size()];
+        int length = 0;
+        for (String word : words) {
+            ids[length] = dictionary.getOrAssignId(word);
+            length++;
+        }
+        return ids;
+    }
+
+    /**
+     * Same as above, but only looks up the string of each distinct word once:
+     * every other occurrence is mapped from its token id to its term id
+     * through a small open-addressing table.
+     */
+    private static int[] termIds(TokenList words, TermDictionary dictionary) {
+        int length = words.size();
+        int capacity = Integer.highestOneBit(Math.max(length, 1)) * 4;
+        int[] tokenIds = new int[capacity];
+        int[] termIds = new int[capacity];
+        Arrays.fill(tokenIds, -1);
+        TokenDictionary tokens = words.getDictionary();
+
+        int[] ids = new int[length];
+        PrimitiveIterator.OfInt iterator = words.tokenIds();
+        for (int i = 0; i < length; i++) {
+            int tokenId = iterator.nextInt();
+            int slot = (tokenId * 0x9E3779B9) & (capacity - 1);
+            while (tokenIds[slot] != tokenId && tokenIds[slot] != -1) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+            if (tokenIds[slot] == -1) {
+                tokenIds[slot] = tokenId;
+                termIds[slot] = dictionary.getOrAssignId(tokens.getToken(tokenId));
+            }
+            ids[i] = termIds[slot];
+        }
+        return ids;
+    }
+
+    /**
+     * Sorts the first 'length' ids and returns the distinct ones, in increasing
+     * order, along with how often each one occurs, as {termIds, counts}.
+     */
+    static int[][] countIds(int[] ids, int length) {
+        Arrays.sort(ids, 0, length);
+        int distinct = 0;
+        for (int i = 0; i < length; i++) {
+            if (i == 0 || ids[i] != ids[i - 1]) {
+                distinct++;
+            }
+        }
+        int[] termIds = new int[distinct];
+        int[] counts = new int[distinct];
+        int next = -1;
+        for (int i = 0; i < length; i++) {
+            if (i == 0 || ids[i] != ids[i - 1]) {
+                next++;
+                termIds[next] = ids[i];
+            }
+            counts[next]++;
+        }
+        return new int[][] {termIds, counts};
+    }
+
+    /**
+     * A contiguous range of document ids, along with the terms found in them.
+     */
+    private static class Shard {
+        private final int lo;
+        private final int hi;
+        private TermDictionary localTerms;
+        private int[] localDocumentFrequencies;
+        private int[] localToGlobal;
+
+        Shard(int lo, int hi) {
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        /**
+         * Step 1: counts the terms of every page in this shard, using local ids.
+         */
+        void countTerms(Webpage[] pages, int[][] docTermIds, int[][] docTermCounts, int[] docLengths) {
+            localTerms = new TermDictionary();
+            for (int docId = lo; docId < hi; docId++) {
+                IList<String> words = pages[docId].getWords();
+                int[][] counted = IndexBuilder.countTerms(words, localTerms);
+                docTermIds[docId] = counted[0];
+                docTermCounts[docId] = counted[1];
+                docLengths[docId] = words.size();
+            }
+            localDocumentFrequencies = new int[localTerms.size()];
+            for (int docId = lo; docId < hi; docId++) {
+                for (int localId : docTermIds[docId]) {
+                    localDocumentFrequencies[localId]++;
+                }
+            }
+        }
+
+        /**
+         * Step 3: replaces the local term ids of every page in this shard with
+         * global ones, keeping each page's ids (and counts) sorted.
+         */
+        void remapTerms(int[][] docTermIds, int[][] docTermCounts) {
+            for (int docId = lo; docId < hi; docId++) {
+                int[] termIds = docTermIds[docId];
+                int[] counts = docTermCounts[docId];
+                long[] packed = new long[termIds.length];
+                for (int i = 0; i < termIds.length; i++) {
+                    packed[i] = ((long) localToGlobal[termIds[i]] << 32) | counts[i];
+                }
+                Arrays.sort(packed);
+                for (int i = 0; i < packed.length; i++) {
+                    termIds[i] = (int) (packed[i] >>> 32);
+                    counts[i] = (int) packed[i];
+                }
+            }
+        }
+    }
+
+    interface RangeAction {
+        void run(int lo, int hi);
+    }
+
+    /**
+     * Runs an action over the range [lo, hi), splitting it in halves until each
+     * piece is at most 'grain' long.
+     */
+    static class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int lo;
+        private final int hi;
+        private final int grain;
+        private final RangeAction action;
+
+        RangeTask(int lo, int hi, int grain, RangeAction action) {
+            this.lo = lo;
+            this.hi = hi;
+            this.grain = grain;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= grain) {
+                action.run(lo, hi);
+            } else {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new RangeTask(lo, mid, grain, action), new RangeTask(mid, hi, grain, action));
+            }
+        }
+    }
+}
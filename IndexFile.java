@@ -0,0 +1,111 @@
+package search.analyzers;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads and writes the header and primitives of the on-disk index format
+ * written by TfIdfAnalyzer.save(...).
+ *
+ * An index file consists of a header:
+ *
+ *   int     MAGIC
+ *   int     VERSION
+ *   long    fingerprint of the corpus the index was built from
+ *
+ * followed by the analyzer's state, in the order TfIdfAnalyzer writes it.
+ * Strings are a varint byte length followed by that many bytes of UTF-8.
+ * Varints use 7 bits per byte, least significant group first, with the high
+ * bit set on every byte except the last (the same encoding as the postings).
+ */
+final class IndexFile {
+    // The first byte is zero, like the other binary formats in this project.
+    static final int MAGIC = 0x00575449;
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8;
+
+    private IndexFile() {}
+
+    /**
+     * Opens the given file for writing and writes the header.
+     */
+    static DataOutputStream create(File file, long fingerprint) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(fingerprint);
+        return out;
+    }
+
+    /**
+     * Maps the given file and checks its header. Returns the mapped data,
+     * positioned right after the header, or null if the file was written
+     * with a different format version or from a corpus with a different
+     * fingerprint.
+     *
+     * @throws IOException  if the file can't be read or is not an index file
+     */
+    static ByteBuffer open(File file, long fingerprint) throws IOException {
+        MappedByteBuffer data;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Index too large to map: " + file);
+            }
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        }
+        if (data.limit() < HEADER_SIZE || data.getInt(0) != MAGIC) {
+            throw new IOException("Not an index file: " + file);
+        }
+        if (data.getInt(4) != VERSION || data.getLong(8) != fingerprint) {
+            return null;
+        }
+        data.position(HEADER_SIZE);
+        return data;
+    }
+
+    static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarInt(ByteBuffer in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(ByteBuffer in) throws IOException {
+        int length = readVarInt(in);
+        if (length < 0 || length > in.remaining()) {
+            throw new IOException("Malformed string");
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,153 @@
+package search.analyzers;
+
+import datastructures.interfaces.IList;
+import search.models.Webpage;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * The links between a set of webpages, stored in compressed sparse row form
+ * by dense document id: the pages linking to page v are
+ * sources[offsets[v]] to sources[offsets[v + 1] - 1], in increasing order,
+ * and outDegree[u] is the number of pages u links to.
+ *
+ * Links to pages outside the set and links from a page to itself are
+ * ignored, and several links from one page to another count as one.
+ *
+ * Links are stored by target rather than by source, so a PageRank iteration
+ * can compute every page's new rank from its incoming links independently,
+ * without threads ever writing to the same page. The graph takes 4 bytes per
+ * link plus 8 per page; building it never holds more than that plus one
+ * page's links per thread.
+ */
+final class LinkGraph {
+    // How many pages each parallel task covers while building.
+    private static final int PAGES_PER_TASK = 1024;
+
+    private final int[] offsets;
+    private final int[] sources;
+    private final int[] outDegree;
+
+    private LinkGraph(int[] offsets, int[] sources, int[] outDegree) {
+        this.offsets = offsets;
+        this.sources = sources;
+        this.outDegree = outDegree;
+    }
+
+    /**
+     * Builds the graph of the given pages, where pages[id] is the page with
+     * the given id in documents.
+     */
+    static LinkGraph build(Webpage[] pages, DocDictionary documents, ForkJoinPool pool) {
+        int n = pages.length;
+        int[] outDegree = new int[n];
+        AtomicIntegerArray cursors = new AtomicIntegerArray(n + 1);
+
+        // Resolve every page's links twice, rather than keeping them all
+        // around: first to count them, then to store them.
+        pool.invoke(new IndexBuilder.RangeTask(0, n, PAGES_PER_TASK, (lo, hi) -> {
+            for (int u = lo; u < hi; u++) {
+                int[] targets = resolveLinks(pages[u], u, documents);
+                outDegree[u] = targets.length;
+                for (int v : targets) {
+                    cursors.incrementAndGet(v + 1);
+                }
+            }
+        }));
+
+        int[] offsets = new int[n + 1];
+        for (int v = 0; v < n; v++) {
+            offsets[v + 1] = offsets[v] + cursors.get(v + 1);
+            cursors.set(v, offsets[v]);
+        }
+        int[] sources = new int[offsets[n]];
+
+        pool.invoke(new IndexBuilder.RangeTask(0, n, PAGES_PER_TASK, (lo, hi) -> {
+            for (int u = lo; u < hi; u++) {
+                for (int v : resolveLinks(pages[u], u, documents)) {
+                    sources[cursors.getAndIncrement(v)] = u;
+                }
+            }
+        }));
+
+        // Threads filled every page's sources in an arbitrary order; sort them
+        // so ranks are summed in the same order every time.
+        pool.invoke(new IndexBuilder.RangeTask(0, n, PAGES_PER_TASK, (lo, hi) -> {
+            for (int v = lo; v < hi; v++) {
+                Arrays.sort(sources, offsets[v], offsets[v + 1]);
+            }
+        }));
+        return new LinkGraph(offsets, sources, outDegree);
+    }
+
+    /**
+     * Returns the distinct ids of the pages the given page links to, other
+     * than itself, in increasing order.
+     */
+    static int[] resolveLinks(Webpage page, int self, DocDictionary documents) {
+        IList<URI> links = page.getLinks();
+        int[] targets = new int[links.size()];
+        int count = 0;
+        for (URI link : links) {
+            int target = documents.getId(link);
+            if (target != -1 && target != self) {
+                targets[count] = target;
+                count++;
+            }
+        }
+        Arrays.sort(targets, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || targets[i] != targets[distinct - 1]) {
+                targets[distinct] = targets[i];
+                distinct++;
+            }
+        }
+        return distinct == targets.length ? targets : Arrays.copyOf(targets, distinct);
+    }
+
+    int getPageCount() {
+        return outDegree.length;
+    }
+
+    int getLinkCount() {
+        return sources.length;
+    }
+
+    int[] getOffsets() {
+        return offsets;
+    }
+
+    int[] getSources() {
+        return sources;
+    }
+
+    int[] getOutDegree() {
+        return outDegree;
+    }
+
+    /**
+     * Returns the same links stored by source instead: the pages page u links
+     * to are targets[offsets[u]] to targets[offsets[u + 1] - 1], in increasing
+     * order. The result is {offsets, targets}.
+     */
+    int[][] transpose() {
+        int n = outDegree.length;
+        int[] outOffsets = new int[n + 1];
+        for (int u = 0; u < n; u++) {
+            outOffsets[u + 1] = outOffsets[u] + outDegree[u];
+        }
+        int[] cursors = Arrays.copyOf(outOffsets, n);
+        int[] targets = new int[sources.length];
+        // Visiting targets in increasing order keeps every page's targets sorted.
+        for (int v = 0; v < n; v++) {
+            for (int i = offsets[v]; i < offsets[v + 1]; i++) {
+                targets[cursors[sources[i]]++] = v;
+            }
+        }
+        return new int[][] {outOffsets, targets};
+    }
+}
@@ -0,0 +1,112 @@
+package search.cluster;
+
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.interfaces.IList;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A set of ShardServers running as separate JVMs on this machine, each
+ * serving one shard of a corpus, for use with a ShardCoordinator.
+ *
+ * The servers are launched with the same Java installation and class path as
+ * the current process. Each one keeps its index in
+ * indexFolder/shard-i-of-n.index, so restarting the cluster over an unchanged
+ * corpus doesn't re-index anything.
+ */
+public class LocalShardCluster implements Closeable {
+    private final Process[] processes;
+    private final IList<InetSocketAddress> addresses;
+
+    private LocalShardCluster(Process[] processes, IList<InetSocketAddress> addresses) {
+        this.processes = processes;
+        this.addresses = addresses;
+    }
+
+    /**
+     * Launches one shard server process per shard, and waits until every one
+     * of them is ready to answer searches.
+     *
+     * @throws IOException  if a server could not be started, or exited before
+     *                      it was ready (its error output is passed through to
+     *                      this process's)
+     */
+    public static LocalShardCluster launch(File corpusFolder, File indexFolder, int shardCount) throws IOException {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException();
+        }
+        if (!indexFolder.isDirectory() && !indexFolder.mkdirs()) {
+            throw new IOException("Could not create " + indexFolder);
+        }
+        String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+        String classPath = System.getProperty("java.class.path");
+
+        Process[] processes = new Process[shardCount];
+        LocalShardCluster cluster = new LocalShardCluster(processes, new DoubleLinkedList<>());
+        try {
+            // Start every server before waiting for any, so they index in parallel.
+            for (int shard = 0; shard < shardCount; shard++) {
+                File indexFile = new File(indexFolder, "shard-" + shard + "-of-" + shardCount + ".index");
+                ProcessBuilder builder = new ProcessBuilder(java, "-cp", classPath, ShardServer.class.getName(),
+                        corpusFolder.getPath(), String.valueOf(shard), String.valueOf(shardCount),
+                        indexFile.getPath());
+                builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+                processes[shard] = builder.start();
+            }
+            for (Process process : processes) {
+                BufferedReader output = new BufferedReader(
+                        new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+                String line = output.readLine();
+                if (line == null || !line.startsWith("READY ")) {
+                    throw new IOException("Shard server failed to start");
+                }
+                int port = Integer.parseInt(line.substring("READY ".length()).trim());
+                cluster.addresses.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            }
+            return cluster;
+        } catch (IOException | RuntimeException ex) {
+            cluster.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Returns the address of every shard server, in shard order.
+     */
+    public IList<InetSocketAddress> getAddresses() {
+        return addresses;
+    }
+
+    /**
+     * Stops the given shard's server, e.g. to see how a coordinator copes with
+     * a missing shard.
+     */
+    public void stop(int shard) {
+        Process process = processes[shard];
+        if (process != null) {
+            process.destroy();
+            try {
+                process.waitFor();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Stops every shard server.
+     */
+    @Override
+    public void close() {
+        for (int shard = 0; shard < processes.length; shard++) {
+            stop(shard);
+        }
+    }
+}
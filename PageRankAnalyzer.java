@@ -0,0 +1,518 @@
+package search.analyzers;
+
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.interfaces.IList;
+import datastructures.interfaces.ISet;
+import misc.TopKCollector;
+import search.models.Webpage;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class is responsible for computing the 'page rank' of all available
+ * webpages, from the links between them.
+ *
+ * A page's rank is the probability that someone clicking links at random ends
+ * up on it: at every step they follow one of the current page's links with
+ * probability 'decay', and jump to a page chosen uniformly at random
+ * otherwise. Pages without any links are treated as linking to every page.
+ * Ranks are non-negative and sum to 1. Spam pages, which few real pages link
+ * to, end up with low ranks, however many words they stuff in.
+ *
+ * The ranks are computed by power iteration over a LinkGraph, starting with
+ * every page at 1/n, until no page's rank changes by epsilon or more in an
+ * iteration (or the iteration limit is reached). Every iteration splits the
+ * pages into fixed blocks processed in parallel, and each page's new rank is
+ * computed from its incoming links alone, so the ranks are identical for
+ * every parallelism level.
+ *
+ * When a page's links change, updateLinks(...) adjusts the ranks without
+ * iterating over the whole graph again. Alongside every rank, we keep its
+ * residual: how much one more iteration would change it. Changing a page's
+ * links only changes the residuals of the pages it linked to before and links
+ * to now. Those residuals are then "pushed": a page whose residual is at
+ * least epsilon adds it to its rank, and passes it on along its links (scaled
+ * by decay), until every residual is below epsilon again. Only pages near the
+ * change are ever visited. See getMaxResidual() for the remaining error.
+ *
+ * All methods are safe to call from several threads at once.
+ */
+public class PageRankAnalyzer {
+    // How many pages each parallel task covers in an iteration. Fixed (rather
+    // than derived from the parallelism), so sums over blocks are always
+    // computed in the same order.
+    private static final int PAGES_PER_BLOCK = 4096;
+
+    private final DocDictionary documents;
+    private final double decay;
+    private final double epsilon;
+    private final int pageCount;
+    private int linkCount;
+
+    // Every page's rank and residual, by document id. Residuals pushed from
+    // pages without links go to every page, so instead of adding them to
+    // every entry of 'residuals', we add them up in 'uniformResidual', which
+    // is part of every page's residual.
+    private final double[] ranks;
+    private final double[] residuals;
+    private double uniformResidual;
+
+    // The largest rank, and the page with it. Kept up to date as ranks grow
+    // during updates; if that page's rank shrinks instead, maxRank is still an
+    // upper bound on every rank, but is marked stale until recomputed (see
+    // updateMaxima()). maxResidual is only recomputed when asked for.
+    private double maxRank;
+    private int maxRankPage;
+    private boolean maxRankStale;
+    private double maxResidual;
+    private boolean maxResidualStale;
+
+    // The links the ranks were computed from, stored by target. Only kept
+    // until the first update, which needs them stored by source instead: page
+    // u links to outTargets[outOffsets[u]] to outTargets[outOffsets[u + 1] - 1],
+    // unless its links were changed, in which case changedLinks[u] has them.
+    private LinkGraph graph;
+    private final int[] outDegree;
+    private int[] outOffsets;
+    private int[] outTargets;
+    private int[][] changedLinks;
+
+    // The queue of pages push(...) works through, and whether each page is in
+    // it. Allocated by the first update and reused, since every push leaves
+    // the queue empty.
+    private int[] queue;
+    private boolean[] queued;
+
+    private int iterations;
+    private boolean converged;
+    private long pushes;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Computes the page ranks of all the given webpages.
+     *
+     * @param webpages  A set of all webpages we have parsed. Must be non-null
+     *                  and must not contain nulls.
+     * @param decay     The probability of following a link rather than jumping
+     *                  to a random page; usually 0.85.
+     * @param epsilon   Iteration stops once no rank changes by this much.
+     * @param limit     The most iterations to run, even if ranks are still
+     *                  changing.
+     */
+    public PageRankAnalyzer(ISet<Webpage> webpages, double decay, double epsilon, int limit) {
+        this(webpages, decay, epsilon, limit, 1);
+    }
+
+    /**
+     * Like PageRankAnalyzer(ISet, double, double, int), but builds the link
+     * graph and runs every iteration using the given number of threads.
+     *
+     * @throws IllegalArgumentException  if decay is not within [0, 1), epsilon
+     *                                   or parallelism is not positive, or
+     *                                   limit is negative
+     */
+    public PageRankAnalyzer(ISet<Webpage> webpages, double decay, double epsilon, int limit, int parallelism) {
+        if (!(decay >= 0 && decay < 1) || !(epsilon > 0) || limit < 0 || parallelism < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.decay = decay;
+        this.epsilon = epsilon;
+        this.documents = new DocDictionary();
+        Webpage[] pages = new Webpage[webpages.size()];
+        for (Webpage page : webpages) {
+            pages[documents.add(page.getUri())] = page;
+        }
+        this.pageCount = pages.length;
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            this.graph = LinkGraph.build(pages, documents, pool);
+            this.linkCount = graph.getLinkCount();
+            this.outDegree = graph.getOutDegree();
+            this.ranks = computeRanks(limit, pool);
+            this.residuals = new double[pageCount];
+            if (pageCount > 0) {
+                iterate(ranks, residuals, pool);
+                for (int docId = 0; docId < pageCount; docId++) {
+                    residuals[docId] -= ranks[docId];
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        updateMaxima();
+    }
+
+    /**
+     * Runs power iteration, and returns every page's rank by document id.
+     */
+    private double[] computeRanks(int limit, ForkJoinPool pool) {
+        double[] ranks = new double[pageCount];
+        double[] next = new double[pageCount];
+        Arrays.fill(ranks, 1.0 / pageCount);
+
+        converged = pageCount == 0;
+        while (!converged && iterations < limit) {
+            double maxChange = iterate(ranks, next, pool);
+            double[] previous = ranks;
+            ranks = next;
+            next = previous;
+            iterations++;
+            converged = maxChange < epsilon;
+        }
+        return ranks;
+    }
+
+    /**
+     * Computes the ranks one iteration after the given ones into 'updated',
+     * and returns the largest change of any rank.
+     */
+    private double iterate(double[] current, double[] updated, ForkJoinPool pool) {
+        int n = pageCount;
+        int[] offsets = graph.getOffsets();
+        int[] sources = graph.getSources();
+        int blocks = (n + PAGES_PER_BLOCK - 1) / PAGES_PER_BLOCK;
+        // How much of its rank each page passes along every one of its links.
+        double[] shares = new double[n];
+        double[] blockTotals = new double[blocks];
+
+        pool.invoke(new IndexBuilder.RangeTask(0, blocks, 1, (lo, hi) -> {
+            for (int block = lo; block < hi; block++) {
+                double dangling = 0.0;
+                for (int u = block * PAGES_PER_BLOCK; u < Math.min(n, (block + 1) * PAGES_PER_BLOCK); u++) {
+                    if (outDegree[u] == 0) {
+                        dangling += current[u];
+                    } else {
+                        shares[u] = current[u] / outDegree[u];
+                    }
+                }
+                blockTotals[block] = dangling;
+            }
+        }));
+        double dangling = 0.0;
+        for (double total : blockTotals) {
+            dangling += total;
+        }
+        double base = (1.0 - decay) / n + decay * dangling / n;
+
+        pool.invoke(new IndexBuilder.RangeTask(0, blocks, 1, (lo, hi) -> {
+            for (int block = lo; block < hi; block++) {
+                double maxChange = 0.0;
+                for (int v = block * PAGES_PER_BLOCK; v < Math.min(n, (block + 1) * PAGES_PER_BLOCK); v++) {
+                    double incoming = 0.0;
+                    for (int i = offsets[v]; i < offsets[v + 1]; i++) {
+                        incoming += shares[sources[i]];
+                    }
+                    updated[v] = base + decay * incoming;
+                    maxChange = Math.max(maxChange, Math.abs(updated[v] - current[v]));
+                }
+                blockTotals[block] = maxChange;
+            }
+        }));
+        double maxChange = 0.0;
+        for (double change : blockTotals) {
+            maxChange = Math.max(maxChange, change);
+        }
+        return maxChange;
+    }
+
+    /**
+     * Replaces the links of the given page (e.g. after it was re-crawled), and
+     * updates the ranks to match, to within the usual epsilon.
+     *
+     * Only the links can change: pages can't be added or removed without
+     * computing the ranks from scratch, since every rank depends on the
+     * number of pages.
+     *
+     * @throws IllegalArgumentException  if page is null or was not one of the
+     *                                   pages given to the constructor
+     */
+    public void updateLinks(Webpage page) {
+        if (page == null) {
+            throw new IllegalArgumentException();
+        }
+        lock.writeLock().lock();
+        try {
+            int u = documents.getId(page.getUri());
+            if (u == -1) {
+                throw new IllegalArgumentException("Unknown page: " + page.getUri());
+            }
+            if (graph != null) {
+                int[][] transposed = graph.transpose();
+                outOffsets = transposed[0];
+                outTargets = transposed[1];
+                changedLinks = new int[pageCount][];
+                queue = new int[pageCount];
+                queued = new boolean[pageCount];
+                graph = null;
+            }
+            int[] oldTargets = getLinks(u);
+            int[] newTargets = LinkGraph.resolveLinks(page, u, documents);
+
+            // The ranks stay the same, but the rank u used to pass along its old
+            // links now goes along its new ones instead; fix the residuals of
+            // the pages on both ends accordingly.
+            int[] touched = new int[oldTargets.length + newTargets.length];
+            passAlong(-decay * ranks[u], oldTargets, touched, 0);
+            passAlong(decay * ranks[u], newTargets, touched, oldTargets.length);
+            changedLinks[u] = newTargets;
+            outDegree[u] = newTargets.length;
+            linkCount += newTargets.length - oldTargets.length;
+
+            push(touched);
+            maxResidualStale = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds the given amount to the residuals of the given pages, split evenly
+     * (or to every page, if there are none), and records them in touched.
+     */
+    private void passAlong(double amount, int[] targets, int[] touched, int start) {
+        if (targets.length == 0) {
+            uniformResidual += amount / pageCount;
+            return;
+        }
+        double share = amount / targets.length;
+        for (int i = 0; i < targets.length; i++) {
+            residuals[targets[i]] += share;
+            touched[start + i] = targets[i];
+        }
+    }
+
+    /**
+     * Pushes residuals, starting from the given pages, until every page's
+     * residual (including the uniform part) is below epsilon.
+     */
+    private void push(int[] start) {
+        // The pages whose residual may need pushing, each at most once at a
+        // time.
+        int head = 0;
+        int size = 0;
+        for (int v : start) {
+            if (!queued[v]) {
+                queued[v] = true;
+                queue[(head + size) % pageCount] = v;
+                size++;
+            }
+        }
+        while (true) {
+            while (size > 0) {
+                int u = queue[head];
+                head = (head + 1) % pageCount;
+                size--;
+                queued[u] = false;
+                double residual = residuals[u];
+                if (Math.abs(residual) < epsilon) {
+                    continue;
+                }
+                ranks[u] += residual;
+                residuals[u] = 0.0;
+                pushes++;
+                if (ranks[u] > maxRank) {
+                    maxRank = ranks[u];
+                    maxRankPage = u;
+                    maxRankStale = false;
+                } else if (u == maxRankPage && residual < 0) {
+                    maxRankStale = true;
+                }
+                if (outDegree[u] == 0) {
+                    uniformResidual += decay * residual / pageCount;
+                    continue;
+                }
+                double share = decay * residual / outDegree[u];
+                int[] links = changedLinks[u];
+                int from = links != null ? 0 : outOffsets[u];
+                int to = links != null ? links.length : outOffsets[u + 1];
+                for (int i = from; i < to; i++) {
+                    int v = links != null ? links[i] : outTargets[i];
+                    residuals[v] += share;
+                    if (!queued[v] && Math.abs(residuals[v]) >= epsilon) {
+                        queued[v] = true;
+                        queue[(head + size) % pageCount] = v;
+                        size++;
+                    }
+                }
+            }
+            if (Math.abs(uniformResidual) < epsilon) {
+                return;
+            }
+            // The uniform residual grew too large: spread it over every page,
+            // and push again wherever that matters.
+            for (int v = 0; v < pageCount; v++) {
+                residuals[v] += uniformResidual;
+                if (!queued[v] && Math.abs(residuals[v]) >= epsilon) {
+                    queued[v] = true;
+                    queue[(head + size) % pageCount] = v;
+                    size++;
+                }
+            }
+            uniformResidual = 0.0;
+        }
+    }
+
+    private int[] getLinks(int u) {
+        if (changedLinks[u] != null) {
+            return changedLinks[u];
+        }
+        return Arrays.copyOfRange(outTargets, outOffsets[u], outOffsets[u + 1]);
+    }
+
+    /**
+     * Recomputes maxRank and maxResidual from every page. Must be called while
+     * holding the write lock.
+     */
+    private void updateMaxima() {
+        maxRank = 0.0;
+        maxRankPage = 0;
+        maxResidual = 0.0;
+        for (int docId = 0; docId < pageCount; docId++) {
+            if (ranks[docId] > maxRank) {
+                maxRank = ranks[docId];
+                maxRankPage = docId;
+            }
+            maxResidual = Math.max(maxResidual, Math.abs(residuals[docId] + uniformResidual));
+        }
+        maxRankStale = false;
+        maxResidualStale = false;
+    }
+
+    /**
+     * Acquires the read lock, first recomputing maxRank (and maxResidual, if
+     * 'residual' is true) if updates left them stale.
+     */
+    private void readLockWithMaxima(boolean residual) {
+        lock.readLock().lock();
+        if (maxRankStale || (residual && maxResidualStale)) {
+            lock.readLock().unlock();
+            lock.writeLock().lock();
+            try {
+                updateMaxima();
+                // Downgrade to the read lock before releasing the write lock,
+                // so no update can make them stale again in between.
+                lock.readLock().lock();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Returns the page rank of the page with the given url, or 0 if it was not
+     * one of the pages given to the constructor.
+     */
+    public double computePageRank(URI pageUri) {
+        lock.readLock().lock();
+        try {
+            int docId = documents.getId(pageUri);
+            return docId == -1 ? 0.0 : ranks[docId];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Re-ranks the given search results (for example, the top few dozen by
+     * TfIdfAnalyzer.search(...)) by a blend of their relevance and their page
+     * rank, and returns the (at most) k best, ordered from best to worst.
+     *
+     * Every result's new score is (1 - weight) * relevance + weight * rank /
+     * maxRank, where maxRank is the highest rank of any page: both parts range
+     * from 0 to 1, so a weight of 0 keeps the relevance order and a weight of 1
+     * orders purely by page rank.
+     *
+     * @throws IllegalArgumentException  if results is null, k < 0, or weight
+     *                                   is not within [0, 1]
+     */
+    public IList<SearchResult> blend(IList<SearchResult> results, int k, double weight) {
+        if (results == null || k < 0 || !(weight >= 0 && weight <= 1)) {
+            throw new IllegalArgumentException();
+        }
+        TopKCollector<SearchResult> best = new TopKCollector<>(k);
+        readLockWithMaxima(false);
+        try {
+            for (SearchResult result : results) {
+                int docId = documents.getId(result.getUri());
+                double rank = docId != -1 && maxRank > 0 ? ranks[docId] / maxRank : 0.0;
+                best.offer(new SearchResult(result.getUri(), (1 - weight) * result.getScore() + weight * rank));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        IList<SearchResult> ascending = best.result();
+        SearchResult[] output = new SearchResult[ascending.size()];
+        int next = output.length;
+        for (SearchResult result : ascending) {
+            next--;
+            output[next] = result;
+        }
+        IList<SearchResult> blended = new DoubleLinkedList<>();
+        for (SearchResult result : output) {
+            blended.add(result);
+        }
+        return blended;
+    }
+
+    /**
+     * Returns the number of distinct links between the pages, ignoring links
+     * to other pages and to the linking page itself.
+     */
+    public int getLinkCount() {
+        lock.readLock().lock();
+        try {
+            return linkCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns how many iterations the constructor ran.
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Returns true if the constructor stopped iterating because the ranks
+     * converged, or false if it stopped at the iteration limit.
+     */
+    public boolean hasConverged() {
+        return converged;
+    }
+
+    /**
+     * Returns the largest residual of any page: how much one more full
+     * iteration would change its rank. Every rank is within roughly
+     * maxResidual * n / (1 - decay) of its exact value, and usually far closer.
+     * If the constructor's iteration converged, this stays on the order of
+     * epsilon after any number of updateLinks(...).
+     */
+    public double getMaxResidual() {
+        readLockWithMaxima(true);
+        try {
+            return maxResidual;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of times updateLinks(...) pushed a page's residual,
+     * which is a measure of how much work the updates took.
+     */
+    public long getPushes() {
+        lock.readLock().lock();
+        try {
+            return pushes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
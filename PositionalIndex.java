@@ -0,0 +1,250 @@
+package search.analyzers;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * The optional positional index of a TfIdfAnalyzer: for every term id, a
+ * PositionalPostingList of where the term appears in every document.
+ *
+ * It is only used to reward pages where the query's words appear close
+ * together (see proximity(...)), so postings of removed documents are simply
+ * left behind until enough of them pile up, at which point they are
+ * compacted away.
+ *
+ * Not thread-safe; TfIdfAnalyzer guards it with its lock.
+ */
+final class PositionalIndex {
+    // Once this fraction of the indexed documents were removed, the lists are
+    // rewritten without them.
+    private static final double COMPACTION_THRESHOLD = 0.1;
+
+    private PositionalPostingList[] lists;
+    private int documents;
+    private int removedSinceCompaction;
+
+    PositionalIndex() {
+        this.lists = new PositionalPostingList[16];
+        this.documents = 0;
+        this.removedSinceCompaction = 0;
+    }
+
+    /**
+     * Adds the positions of every word of a document, given the term id of
+     * each word in order. Documents must be added in increasing id order.
+     */
+    void addDocument(int docId, int[] wordTermIds) {
+        // Sort (term id, position) pairs, to group every term's positions.
+        long[] pairs = new long[wordTermIds.length];
+        for (int position = 0; position < wordTermIds.length; position++) {
+            pairs[position] = ((long) wordTermIds[position] << 32) | position;
+        }
+        Arrays.sort(pairs);
+        int[] positions = new int[PositionalPostingList.MAX_POSITIONS];
+        int start = 0;
+        while (start < pairs.length) {
+            int termId = (int) (pairs[start] >>> 32);
+            int end = start;
+            while (end < pairs.length && (int) (pairs[end] >>> 32) == termId) {
+                if (end - start < positions.length) {
+                    positions[end - start] = (int) pairs[end];
+                }
+                end++;
+            }
+            list(termId).add(docId, positions, end - start);
+            start = end;
+        }
+        documents++;
+    }
+
+    /**
+     * Notes that the given document was removed. Its postings stay behind
+     * until enough documents were removed, at which point every list is
+     * rewritten keeping only the postings of documents 'isLive' accepts.
+     *
+     * @param isLive  whether a document id still refers to an indexed
+     *                document; must reject docId and every document removed
+     *                before
+     * @throws IllegalArgumentException  if isLive accepts docId
+     */
+    void removeDocument(int docId, IntPredicate isLive) {
+        if (isLive.test(docId)) {
+            throw new IllegalArgumentException();
+        }
+        removedSinceCompaction++;
+        if (removedSinceCompaction > COMPACTION_THRESHOLD * Math.max(1, documents)) {
+            int[] positions = new int[PositionalPostingList.MAX_POSITIONS];
+            for (int termId = 0; termId < lists.length; termId++) {
+                if (lists[termId] == null) {
+                    continue;
+                }
+                PositionalPostingList compacted = new PositionalPostingList();
+                for (PositionalPostingList.Cursor cursor = lists[termId].cursor(); !cursor.isExhausted();
+                        cursor.next()) {
+                    if (isLive.test(cursor.docId())) {
+                        compacted.add(cursor.docId(), positions, cursor.positions(positions));
+                    }
+                }
+                compacted.trimToSize();
+                lists[termId] = compacted;
+            }
+            documents -= removedSinceCompaction;
+            removedSinceCompaction = 0;
+        }
+    }
+
+    /**
+     * Returns the number of bytes used by every list's postings and skip data.
+     */
+    long sizeInBytes() {
+        long bytes = 0;
+        for (PositionalPostingList list : lists) {
+            if (list != null) {
+                bytes += list.sizeInBytes();
+            }
+        }
+        return bytes;
+    }
+
+    void trimToSize() {
+        for (PositionalPostingList list : lists) {
+            if (list != null) {
+                list.trimToSize();
+            }
+        }
+    }
+
+    /**
+     * Returns, for every one of the given documents (in increasing id order),
+     * how closely the given query words appear together in it:
+     *
+     * - 1 if the words appear next to each other in query order (the query is
+     *   found as a phrase),
+     * - otherwise, half the number of distinct words divided by the length of
+     *   the shortest run of words containing all of them,
+     * - or 0 if the document doesn't contain every word, or the query has
+     *   fewer than two distinct words.
+     *
+     * Every term's postings are visited once, in document id order, skipping
+     * whole blocks between the given documents.
+     *
+     * @param queryTermIds  the term id of every query word, in order, or -1
+     *                      for words that aren't indexed
+     */
+    double[] proximity(int[] queryTermIds, int[] docIds) {
+        double[] output = new double[docIds.length];
+        int[] distinct = distinctTerms(queryTermIds);
+        if (distinct == null || distinct.length < 2) {
+            return output;
+        }
+        PositionalPostingList.Cursor[] cursors = new PositionalPostingList.Cursor[distinct.length];
+        for (int i = 0; i < distinct.length; i++) {
+            cursors[i] = lists[distinct[i]].cursor();
+        }
+        // The positions of every distinct term, and, for every query word,
+        // which distinct term it is.
+        int[][] positions = new int[distinct.length][PositionalPostingList.MAX_POSITIONS];
+        int[] counts = new int[distinct.length];
+        int[] wordTerms = new int[queryTermIds.length];
+        for (int word = 0; word < queryTermIds.length; word++) {
+            wordTerms[word] = Arrays.binarySearch(distinct, queryTermIds[word]);
+        }
+
+        for (int d = 0; d < docIds.length; d++) {
+            boolean all = true;
+            for (int i = 0; i < cursors.length && all; i++) {
+                cursors[i].advance(docIds[d]);
+                if (cursors[i].docId() != docIds[d]) {
+                    all = false;
+                } else {
+                    counts[i] = cursors[i].positions(positions[i]);
+                }
+            }
+            if (!all) {
+                continue;
+            }
+            if (containsPhrase(positions, counts, wordTerms)) {
+                output[d] = 1.0;
+            } else {
+                output[d] = 0.5 * distinct.length / shortestSpan(positions, counts);
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Returns the distinct term ids of the given query, in increasing order,
+     * or null if some word isn't indexed (so no document contains them all).
+     */
+    private int[] distinctTerms(int[] queryTermIds) {
+        int[] sorted = queryTermIds.clone();
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            int termId = sorted[i];
+            if (termId < 0 || termId >= lists.length || lists[termId] == null) {
+                return null;
+            }
+            if (distinct == 0 || sorted[distinct - 1] != termId) {
+                sorted[distinct] = termId;
+                distinct++;
+            }
+        }
+        return Arrays.copyOf(sorted, distinct);
+    }
+
+    /**
+     * Returns true if, for some position p, the i-th query word appears at
+     * position p + i for every i.
+     */
+    private static boolean containsPhrase(int[][] positions, int[] counts, int[] wordTerms) {
+        int first = wordTerms[0];
+        for (int i = 0; i < counts[first]; i++) {
+            int start = positions[first][i];
+            boolean found = true;
+            for (int word = 1; word < wordTerms.length && found; word++) {
+                int term = wordTerms[word];
+                found = Arrays.binarySearch(positions[term], 0, counts[term], start + word) >= 0;
+            }
+            if (found) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the length of the shortest run of positions that contains at
+     * least one position of every term, by sweeping over all the positions in
+     * increasing order.
+     */
+    private static int shortestSpan(int[][] positions, int[] counts) {
+        int[] next = new int[counts.length];
+        int best = Integer.MAX_VALUE;
+        while (true) {
+            int min = 0;
+            int max = Integer.MIN_VALUE;
+            for (int i = 0; i < counts.length; i++) {
+                if (positions[i][next[i]] < positions[min][next[min]]) {
+                    min = i;
+                }
+                max = Math.max(max, positions[i][next[i]]);
+            }
+            best = Math.min(best, max - positions[min][next[min]] + 1);
+            next[min]++;
+            if (next[min] == counts[min]) {
+                return best;
+            }
+        }
+    }
+
+    private PositionalPostingList list(int termId) {
+        if (termId >= lists.length) {
+            lists = Arrays.copyOf(lists, Math.max(termId + 1, lists.length * 2));
+        }
+        if (lists[termId] == null) {
+            lists[termId] = new PositionalPostingList();
+        }
+        return lists[termId];
+    }
+}
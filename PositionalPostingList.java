@@ -0,0 +1,110 @@
+package search.analyzers;
+
+/**
+ * A compressed list of positional postings for a single term: every document
+ * id the term appears in, in increasing order, along with the positions
+ * (indices into the page's words) it appears at.
+ *
+ * Postings are grouped into blocks of BLOCK_SIZE, like CompressedPostingList.
+ * Within a block, each posting is stored as variable-byte integers: the gap
+ * from the previous document id, the number of positions, then every position
+ * as the gap from the previous one (the first as itself). At most
+ * MAX_POSITIONS positions are kept per posting, so a word repeated thousands
+ * of times in one page can't blow up the index; proximity only ever looks at
+ * the first MAX_POSITIONS occurrences.
+ *
+ * For every block we also keep its last document id and byte offset, so a
+ * Cursor can skip whole blocks without decoding them (see BlockPostingList).
+ *
+ * Postings can only be appended, in increasing document id order. This is not
+ * thread-safe: callers must not append while a cursor is in use.
+ */
+public class PositionalPostingList extends BlockPostingList {
+    public static final int MAX_POSITIONS = 32;
+
+    /**
+     * Appends a posting with the first 'count' of the given positions (of
+     * which only the first MAX_POSITIONS are kept).
+     *
+     * @throws IllegalArgumentException  if docId is not larger than the last
+     *                                   posting's, count < 1, or the
+     *                                   positions are not increasing
+     */
+    public void add(int docId, int[] positions, int count) {
+        if (docId <= lastDocId() || count < 1) {
+            throw new IllegalArgumentException();
+        }
+        int kept = Math.min(count, MAX_POSITIONS);
+        int previousPosition = -1;
+        for (int i = 0; i < kept; i++) {
+            if (positions[i] <= previousPosition) {
+                throw new IllegalArgumentException();
+            }
+            previousPosition = positions[i];
+        }
+        appendDocId(docId);
+        writeVarInt(kept);
+        previousPosition = 0;
+        for (int i = 0; i < kept; i++) {
+            writeVarInt(positions[i] - previousPosition);
+            previousPosition = positions[i];
+        }
+    }
+
+    /**
+     * Returns a new cursor positioned on the first posting.
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Iterates over the postings of a list. Positions are only decoded when
+     * asked for.
+     */
+    public class Cursor extends BlockCursor {
+        private int count;
+        private int positionsOffset;
+
+        private Cursor() {
+            next();
+        }
+
+        /**
+         * Returns the number of positions stored for the current posting.
+         */
+        public int count() {
+            return count;
+        }
+
+        /**
+         * Decodes the current posting's positions into the given array (which
+         * must hold at least count() of them), in increasing order, and
+         * returns how many there are.
+         */
+        public int positions(int[] output) {
+            int next = offset;
+            offset = positionsOffset;
+            int position = 0;
+            for (int i = 0; i < count; i++) {
+                position += readVarInt();
+                output[i] = position;
+            }
+            offset = next;
+            return count;
+        }
+
+        @Override
+        void readPayload() {
+            count = readVarInt();
+            positionsOffset = offset;
+        }
+
+        @Override
+        void skipPayload() {
+            for (int i = 0; i < count; i++) {
+                skipVarInt();
+            }
+        }
+    }
+}
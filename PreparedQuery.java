@@ -0,0 +1,86 @@
+package search.analyzers;
+
+/**
+ * A search query that has already been converted to a TF-IDF vector by a
+ * particular TfIdfAnalyzer, so it can be scored against any number of pages
+ * without recomputing its vector or norm.
+ *
+ * Create one with TfIdfAnalyzer.prepare(...). A prepared query may only be used
+ * with the analyzer that created it, since it refers to that analyzer's term ids.
+ * It captures the IDF of its words at the time it was prepared; re-prepare it
+ * after changing the analyzer's pages to pick up the new IDF scores. If the
+ * analyzer serves queries from snapshots, the query also remembers the snapshot
+ * it was prepared against, and is always scored against that same snapshot;
+ * pages removed since are only found until a newer snapshot compacts their
+ * postings away.
+ */
+public class PreparedQuery {
+    private final TfIdfAnalyzer analyzer;
+    private final int[] termIds;
+    private final double[] weights;
+    private final double[] idfScores;
+    private final double norm;
+    private final IdfSnapshot snapshot;
+
+    /**
+     * The arrays are parallel and sorted by increasing term id, and are used
+     * directly (not copied). The snapshot is null if the query was prepared
+     * against the analyzer's live state.
+     *
+     * otherWeights are the weights of query words no page of the analyzer
+     * contains, but pages of other shards of the same corpus do (see
+     * TfIdfAnalyzer.setGlobalStatistics): they match nothing, but still count
+     * towards the query's norm.
+     */
+    PreparedQuery(TfIdfAnalyzer analyzer, IdfSnapshot snapshot, int[] termIds, double[] weights,
+                  double[] idfScores, double[] otherWeights) {
+        this.analyzer = analyzer;
+        this.snapshot = snapshot;
+        this.termIds = termIds;
+        this.weights = weights;
+        this.idfScores = idfScores;
+        double sum = 0.0;
+        for (double weight : weights) {
+            sum += weight * weight;
+        }
+        for (double weight : otherWeights) {
+            sum += weight * weight;
+        }
+        this.norm = Math.sqrt(sum);
+    }
+
+    TfIdfAnalyzer getAnalyzer() {
+        return analyzer;
+    }
+
+    IdfSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Returns the number of distinct query words that appear in the index.
+     */
+    public int size() {
+        return termIds.length;
+    }
+
+    int getTermId(int index) {
+        return termIds[index];
+    }
+
+    double getWeight(int index) {
+        return weights[index];
+    }
+
+    /**
+     * Returns the IDF score the word at the given index had when this query
+     * was prepared.
+     */
+    double getIdf(int index) {
+        return idfScores[index];
+    }
+
+    double getNorm() {
+        return norm;
+    }
+}
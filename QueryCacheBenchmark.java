@@ -0,0 +1,159 @@
+package search.analyzers;
+
+import datastructures.concrete.ChainedHashSet;
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.interfaces.IList;
+import datastructures.interfaces.ISet;
+import search.Main;
+import search.models.Webpage;
+import search.models.WebpageLoader;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares the admission policies of QueryResultCache on a synthetic query
+ * log over a real corpus: a fixed pool of queries asked with Zipf-distributed
+ * popularity (like real search traffic), interleaved with one-off queries that
+ * are never repeated (like crawlers and typos).
+ *
+ * For every cache size and policy, replays the same log and reports the hit
+ * rate, evictions, rejected admissions and total time, next to the time taken
+ * without any cache. Usage:
+ *
+ *   QueryCacheBenchmark [data folder] [queries]
+ *
+ * The data folder defaults to the one Main indexes.
+ */
+public class QueryCacheBenchmark {
+    private static final int DISTINCT_QUERIES = 20000;
+    private static final double ZIPF_EXPONENT = 0.9;
+    private static final double ONE_OFF_FRACTION = 0.3;
+    private static final int[] CACHE_SIZES = {100, 1000, 5000};
+    private static final int K = 10;
+
+    public static void main(String[] args) {
+        File folder = new File(args.length > 0 ? args[0] : "data/" + Main.DATA_FOLDER_NAME);
+        int queryCount = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+
+        IList<URI> uris = new DoubleLinkedList<>();
+        collectPages(folder, uris);
+        if (uris.isEmpty()) {
+            System.out.println("No pages found in " + folder);
+            return;
+        }
+        // Every page is loaded from one segment file next to the corpus
+        // folder, rather than from one cache file per page.
+        long fingerprint;
+        try {
+            fingerprint = TfIdfAnalyzer.corpusFingerprint(folder);
+        } catch (IOException ex) {
+            throw new RuntimeException("Could not read corpus folder", ex);
+        }
+        File segmentFile = new File(folder.getPath() + ".segment");
+
+        ISet<Webpage> pages = new ChainedHashSet<>();
+        IList<String> vocabulary = new DoubleLinkedList<>();
+        ISet<String> seen = new ChainedHashSet<>();
+        for (Webpage page : WebpageLoader.loadAll(uris, segmentFile, fingerprint)) {
+            pages.add(page);
+            for (String word : page.getWords()) {
+                if (!seen.contains(word)) {
+                    seen.add(word);
+                    vocabulary.add(word);
+                }
+            }
+        }
+        TfIdfAnalyzer analyzer = new TfIdfAnalyzer(pages);
+        System.out.println(String.format("Indexed %d pages from %s", pages.size(), folder));
+
+        String[] words = new String[vocabulary.size()];
+        int next = 0;
+        for (String word : vocabulary) {
+            words[next] = word;
+            next++;
+        }
+        IList<IList<String>> log = generateLog(words, queryCount, new Random(373));
+
+        replay(analyzer, log);
+        System.out.println(String.format("No cache: %d ms", replay(analyzer, log)));
+        for (int size : CACHE_SIZES) {
+            for (QueryResultCache.AdmissionPolicy policy : QueryResultCache.AdmissionPolicy.values()) {
+                QueryResultCache cache = new QueryResultCache(size, policy);
+                analyzer.setResultCache(cache);
+                long millis = replay(analyzer, log);
+                System.out.println(String.format(
+                        "%5d entries, %-8s: hit rate %5.1f%%, %d evictions, %d rejected, %d ms",
+                        size, policy, 100 * cache.getHitRate(), cache.getEvictions(),
+                        cache.getRejections(), millis));
+            }
+        }
+        analyzer.setResultCache(null);
+    }
+
+    private static long replay(TfIdfAnalyzer analyzer, IList<IList<String>> log) {
+        long start = System.nanoTime();
+        for (IList<String> query : log) {
+            analyzer.search(query, K);
+        }
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+    private static IList<IList<String>> generateLog(String[] words, int queryCount, Random random) {
+        // Each query in the pool is identified by the seed that generates it,
+        // so asking it again builds an equal query (the cache only compares
+        // words) without keeping the whole pool around.
+        long[] pool = new long[DISTINCT_QUERIES];
+        for (int i = 0; i < pool.length; i++) {
+            pool[i] = random.nextLong();
+        }
+
+        // The cumulative probability of asking each query in the pool.
+        double[] cumulative = new double[pool.length];
+        double total = 0.0;
+        for (int i = 0; i < pool.length; i++) {
+            total += 1.0 / Math.pow(i + 1, ZIPF_EXPONENT);
+            cumulative[i] = total;
+        }
+
+        IList<IList<String>> log = new DoubleLinkedList<>();
+        for (int i = 0; i < queryCount; i++) {
+            if (random.nextDouble() < ONE_OFF_FRACTION) {
+                log.add(randomQuery(words, random));
+            } else {
+                int index = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+                long seed = pool[index >= 0 ? index : Math.min(-index - 1, pool.length - 1)];
+                log.add(randomQuery(words, new Random(seed)));
+            }
+        }
+        return log;
+    }
+
+    private static IList<String> randomQuery(String[] words, Random random) {
+        IList<String> query = new DoubleLinkedList<>();
+        int length = 1 + random.nextInt(3);
+        for (int i = 0; i < length; i++) {
+            query.add(words[random.nextInt(words.length)]);
+        }
+        return query;
+    }
+
+    private static void collectPages(File folder, IList<URI> uris) {
+        File[] children = folder.listFiles();
+        if (children == null) {
+            return;
+        }
+        // Always in the same order, as the corpus segment requires.
+        Arrays.sort(children);
+        for (File child : children) {
+            if (child.isDirectory()) {
+                collectPages(child, uris);
+            } else if (child.getName().endsWith(".html")) {
+                uris.add(child.toURI());
+            }
+        }
+    }
+}
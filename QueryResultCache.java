@@ -0,0 +1,312 @@
+package search.analyzers;
+
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.concrete.dictionaries.ChainedHashDictionary;
+import datastructures.interfaces.IDictionary;
+import datastructures.interfaces.IList;
+
+import java.util.Arrays;
+
+/**
+ * A bounded cache of search results, placed in front of TfIdfAnalyzer.search
+ * with TfIdfAnalyzer.setResultCache(...).
+ *
+ * Results are keyed by the query's words, sorted (a query's score only depends
+ * on how often each word appears in it, not on their order), and by k. Once
+ * the cache holds maxEntries results, adding one evicts the least recently
+ * used. The analyzer invalidates the whole cache whenever its pages, IDF
+ * scores or norms change, so a hit always returns exactly what search(...)
+ * would have.
+ *
+ * The admission policy decides whether a new result is worth evicting another
+ * one for:
+ *
+ * - ALWAYS admits every result, which is plain LRU.
+ * - TINY_LFU keeps an approximate count of how often every query was asked
+ *   recently (a count-min sketch of small counters, halved periodically so old
+ *   popularity fades), and only admits a result if its query was asked more
+ *   often than the one it would evict. A burst of one-off queries then can't
+ *   flush the popular ones out of the cache.
+ *
+ * All methods are safe to call from several threads at once.
+ */
+public class QueryResultCache {
+    public enum AdmissionPolicy { ALWAYS, TINY_LFU }
+
+    private final int maxEntries;
+    private final AdmissionPolicy policy;
+    private final FrequencySketch sketch;
+
+    // The cached results, and the same entries in a circular list from least
+    // to most recently used, with head as its sentinel. Guarded by this.
+    private final IDictionary<Key, Entry> entries;
+    private final Entry head;
+
+    // Incremented by every invalidation; results computed before one are not
+    // admitted afterwards. Guarded by this.
+    private long generation;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long rejections;
+    private long invalidations;
+
+    /**
+     * @throws IllegalArgumentException  if maxEntries < 1 or policy is null
+     */
+    public QueryResultCache(int maxEntries, AdmissionPolicy policy) {
+        if (maxEntries < 1 || policy == null) {
+            throw new IllegalArgumentException();
+        }
+        this.maxEntries = maxEntries;
+        this.policy = policy;
+        this.sketch = policy == AdmissionPolicy.TINY_LFU ? new FrequencySketch(maxEntries) : null;
+        this.entries = new ChainedHashDictionary<>();
+        this.head = new Entry(null, null);
+        this.head.previous = this.head;
+        this.head.next = this.head;
+    }
+
+    /**
+     * Returns a copy of the cached results of the given query, or null if
+     * they are not cached.
+     */
+    synchronized IList<SearchResult> get(Key key) {
+        if (sketch != null) {
+            sketch.increment(key.hashCode());
+        }
+        Entry entry = entries.getOrDefault(key, null);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        unlink(entry);
+        linkLast(entry);
+        return copy(entry.results);
+    }
+
+    /**
+     * Caches the given results of the given query, unless the cache was
+     * invalidated since getGeneration() returned the given generation, or the
+     * admission policy rejects them.
+     */
+    synchronized void put(Key key, IList<SearchResult> results, long generation) {
+        if (generation != this.generation || entries.containsKey(key)) {
+            return;
+        }
+        if (entries.size() >= maxEntries) {
+            Entry victim = head.next;
+            if (sketch != null && sketch.frequency(key.hashCode()) <= sketch.frequency(victim.key.hashCode())) {
+                rejections++;
+                return;
+            }
+            unlink(victim);
+            entries.remove(victim.key);
+            evictions++;
+        }
+        Entry entry = new Entry(key, copy(results));
+        entries.put(key, entry);
+        linkLast(entry);
+    }
+
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Discards every cached result.
+     */
+    public synchronized void invalidate() {
+        while (head.next != head) {
+            Entry entry = head.next;
+            unlink(entry);
+            entries.remove(entry.key);
+        }
+        generation++;
+        invalidations++;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public AdmissionPolicy getAdmissionPolicy() {
+        return policy;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of results evicted to make room for another one.
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Returns the number of results the admission policy refused to cache.
+     */
+    public synchronized long getRejections() {
+        return rejections;
+    }
+
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    /**
+     * Returns the fraction of lookups that were hits, or 0 if there were none.
+     */
+    public synchronized double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0.0 : (double) hits / lookups;
+    }
+
+    public synchronized void resetCounters() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+        rejections = 0;
+        invalidations = 0;
+    }
+
+    private void unlink(Entry entry) {
+        entry.previous.next = entry.next;
+        entry.next.previous = entry.previous;
+    }
+
+    private void linkLast(Entry entry) {
+        entry.previous = head.previous;
+        entry.next = head;
+        head.previous.next = entry;
+        head.previous = entry;
+    }
+
+    // Cached lists are never handed out, so callers can't modify them.
+    private static IList<SearchResult> copy(IList<SearchResult> results) {
+        IList<SearchResult> output = new DoubleLinkedList<>();
+        for (SearchResult result : results) {
+            output.add(result);
+        }
+        return output;
+    }
+
+    /**
+     * A query in normalized form: its words, sorted, and k.
+     */
+    static final class Key {
+        private final String[] words;
+        private final int k;
+        private final int hash;
+
+        Key(IList<String> query, int k) {
+            this.words = new String[query.size()];
+            int i = 0;
+            for (String word : query) {
+                if (word == null) {
+                    throw new IllegalArgumentException();
+                }
+                this.words[i] = word;
+                i++;
+            }
+            Arrays.sort(this.words);
+            this.k = k;
+            this.hash = 31 * Arrays.hashCode(this.words) + k;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key that = (Key) other;
+            return this.k == that.k && this.hash == that.hash && Arrays.equals(this.words, that.words);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static class Entry {
+        private final Key key;
+        private final IList<SearchResult> results;
+        private Entry previous;
+        private Entry next;
+
+        Entry(Key key, IList<SearchResult> results) {
+            this.key = key;
+            this.results = results;
+        }
+    }
+
+    /**
+     * Estimates how often every query hash was seen recently, in a fixed
+     * amount of memory: each hash increments one counter in each of DEPTH
+     * rows, and its estimate is the smallest of those counters. Counters
+     * saturate at MAX_COUNT, and all of them are halved once SAMPLE_FACTOR
+     * times as many increments as there are cache entries have happened.
+     */
+    private static class FrequencySketch {
+        private static final int DEPTH = 4;
+        private static final int MAX_COUNT = 15;
+        private static final int SAMPLE_FACTOR = 10;
+        private static final int[] SEEDS = {0x97cb3127, 0x85ebca6b, 0xc2b2ae35, 0x27d4eb2f};
+
+        private final byte[][] counters;
+        private final int mask;
+        private final int sampleSize;
+        private int increments;
+
+        FrequencySketch(int maxEntries) {
+            int width = Integer.highestOneBit(Math.min(Math.max(16, maxEntries), 1 << 24)) * 2;
+            this.counters = new byte[DEPTH][width];
+            this.mask = width - 1;
+            this.sampleSize = (int) Math.min(Integer.MAX_VALUE, (long) maxEntries * SAMPLE_FACTOR);
+        }
+
+        void increment(int hash) {
+            for (int row = 0; row < DEPTH; row++) {
+                int index = index(hash, row);
+                if (counters[row][index] < MAX_COUNT) {
+                    counters[row][index]++;
+                }
+            }
+            increments++;
+            if (increments >= sampleSize) {
+                for (byte[] row : counters) {
+                    for (int i = 0; i < row.length; i++) {
+                        row[i] >>= 1;
+                    }
+                }
+                increments /= 2;
+            }
+        }
+
+        int frequency(int hash) {
+            int frequency = MAX_COUNT;
+            for (int row = 0; row < DEPTH; row++) {
+                frequency = Math.min(frequency, counters[row][index(hash, row)]);
+            }
+            return frequency;
+        }
+
+        private int index(int hash, int row) {
+            int mixed = hash * SEEDS[row];
+            return (mixed ^ (mixed >>> 16)) & mask;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package search.analyzers;
+
+import java.net.URI;
+
+/**
+ * A single ranked search result: a page URI and its relevance to a query.
+ *
+ * Results are ordered by score. Ties are broken by URI so that rankings are
+ * reproducible: of two equally relevant pages, the one with the
+ * lexicographically smaller URI is considered the "larger" (better) result.
+ */
+public class SearchResult implements Comparable<SearchResult> {
+    private final URI uri;
+    private final double score;
+
+    public SearchResult(URI uri, double score) {
+        this.uri = uri;
+        this.score = score;
+    }
+
+    public URI getUri() {
+        return this.uri;
+    }
+
+    public double getScore() {
+        return this.score;
+    }
+
+    @Override
+    public int compareTo(SearchResult other) {
+        int byScore = Double.compare(this.score, other.score);
+        if (byScore != 0) {
+            return byScore;
+        }
+        return other.uri.compareTo(this.uri);
+    }
+
+    @Override
+    public String toString() {
+        return this.uri + " (" + this.score + ")";
+    }
+}
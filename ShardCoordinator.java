@@ -0,0 +1,414 @@
+package search.cluster;
+
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.interfaces.IList;
+import misc.Sorter;
+import search.analyzers.CorpusStatistics;
+import search.analyzers.SearchResult;
+import search.misc.WordTokenizer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Answers searches by fanning them out to several ShardServers, and merging
+ * every shard's top k into the overall top k.
+ *
+ * Before the first search, the coordinator collects the document frequencies
+ * of every shard, and hands their total back to every shard (see
+ * refreshStatistics()), so every shard computes IDF scores and norms over the
+ * whole corpus. Scores are thus the same as those of a single TfIdfAnalyzer
+ * over every page, and can be compared across shards.
+ *
+ * Each search has a time limit. Shards that can't be reached, fail, don't
+ * answer within the limit, or hold outdated statistics (e.g. because they
+ * restarted) are left out, and the search returns the merged results of the
+ * others, marked as partial. A shard that failed is simply tried again on the
+ * next search, and outdated statistics are refreshed.
+ *
+ * Connections to the shards are kept open and reused. Any number of threads
+ * may search at once; each search uses its own connection to every shard.
+ */
+public class ShardCoordinator implements Closeable {
+    // After a refresh that left out some shards, searches try again at most
+    // this often.
+    private static final long STATISTICS_RETRY_MILLIS = 10000;
+
+    private final Shard[] shards;
+    private final int timeoutMillis;
+    private final AtomicInteger nextRequestId;
+    private volatile boolean closed;
+
+    // The version of the global statistics the shards were last given (0 if
+    // they never were), and whether some shard is known not to hold them.
+    // Searches hold the read lock, refreshes the write lock, so a search never
+    // mistakes a refresh in progress for outdated statistics.
+    private final ReentrantReadWriteLock statisticsLock = new ReentrantReadWriteLock();
+    private volatile long statisticsVersion;
+    private volatile boolean statisticsStale;
+    private volatile long nextRefreshNanos;
+
+    /**
+     * @param shards         the address of every shard server
+     * @param timeoutMillis  how long a search waits for the shards to answer
+     * @throws IllegalArgumentException  if there are no shards or the timeout
+     *                                   is not positive
+     */
+    public ShardCoordinator(IList<InetSocketAddress> shards, int timeoutMillis) {
+        if (shards == null || shards.isEmpty() || timeoutMillis <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.shards = new Shard[shards.size()];
+        int i = 0;
+        for (InetSocketAddress shard : shards) {
+            this.shards[i] = new Shard(shard);
+            i++;
+        }
+        this.timeoutMillis = timeoutMillis;
+        this.nextRequestId = new AtomicInteger();
+        this.closed = false;
+        this.statisticsVersion = 0;
+        this.statisticsStale = true;
+        this.nextRefreshNanos = System.nanoTime();
+    }
+
+    /**
+     * The merged results of a search, along with how many shards contributed.
+     */
+    public static class Results {
+        private final IList<SearchResult> results;
+        private final int shardsAnswered;
+        private final int shardCount;
+
+        Results(IList<SearchResult> results, int shardsAnswered, int shardCount) {
+            this.results = results;
+            this.shardsAnswered = shardsAnswered;
+            this.shardCount = shardCount;
+        }
+
+        /**
+         * Returns the (at most) k most relevant pages of the shards that
+         * answered, ordered from most to least relevant.
+         */
+        public IList<SearchResult> getResults() {
+            return results;
+        }
+
+        public int getShardsAnswered() {
+            return shardsAnswered;
+        }
+
+        public int getShardCount() {
+            return shardCount;
+        }
+
+        /**
+         * Returns true if some shards didn't answer, so pages on those shards
+         * may be missing from the results.
+         */
+        public boolean isPartial() {
+            return shardsAnswered < shardCount;
+        }
+    }
+
+    /**
+     * Returns the (at most) k pages most relevant to the given query, across
+     * every shard that answers in time.
+     *
+     * @throws IllegalArgumentException  if k < 0 or query is null
+     * @throws IllegalStateException     if this coordinator was closed
+     */
+    public Results search(IList<String> query, int k) {
+        if (k < 0 || query == null) {
+            throw new IllegalArgumentException();
+        }
+        if (closed) {
+            throw new IllegalStateException("Coordinator is closed");
+        }
+        if (statisticsStale && System.nanoTime() - nextRefreshNanos >= 0) {
+            refreshStatistics();
+        }
+        statisticsLock.readLock().lock();
+        try {
+            // Shards never send more than this many results anyway.
+            return search(query, Math.min(k, ShardProtocol.MAX_RESULTS), statisticsVersion);
+        } finally {
+            statisticsLock.readLock().unlock();
+        }
+    }
+
+    private Results search(IList<String> query, int k, long version) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        int requestId = nextRequestId.incrementAndGet();
+
+        // Send the query to every shard before waiting for any of them, so they
+        // all work on it at the same time.
+        Connection[] connections = new Connection[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            Connection connection = null;
+            try {
+                connection = borrowConnection(i, deadline);
+                ShardProtocol.writeSearch(connection.out, requestId, k, version, query);
+                connection.out.flush();
+                connections[i] = connection;
+            } catch (IOException ex) {
+                closeQuietly(connection);
+            }
+        }
+
+        IList<IList<SearchResult>> shardResults = new DoubleLinkedList<>();
+        int answered = 0;
+        for (int i = 0; i < shards.length; i++) {
+            Connection connection = connections[i];
+            if (connection == null) {
+                continue;
+            }
+            try {
+                connection.socket.setSoTimeout(remainingMillis(deadline));
+                shardResults.add(ShardProtocol.readResults(connection.in, requestId));
+                answered++;
+                releaseConnection(i, connection);
+            } catch (ShardProtocol.StaleStatisticsException ex) {
+                // The shard answered, so the connection is fine; its
+                // statistics will be refreshed before the next search.
+                statisticsStale = true;
+                releaseConnection(i, connection);
+            } catch (IOException ex) {
+                // A late answer would arrive on this connection after we've
+                // moved on, so it can't be reused.
+                closeQuietly(connection);
+            }
+        }
+        // Every shard sends its results already sorted, so we only need to merge.
+        return new Results(Sorter.mergeTopK(k, shardResults), answered, shards.length);
+    }
+
+    /**
+     * Collects the statistics of every shard, and gives their total to every
+     * shard, so they all compute IDF scores over the whole corpus. Returns how
+     * many shards were included: those that can't be reached are left out,
+     * and tried again by a later search.
+     *
+     * This happens automatically before the first search, but should be
+     * called again whenever the shards' pages change.
+     *
+     * @throws IllegalStateException  if this coordinator was closed
+     */
+    public int refreshStatistics() {
+        if (closed) {
+            throw new IllegalStateException("Coordinator is closed");
+        }
+        statisticsLock.writeLock().lock();
+        try {
+            statisticsStale = false;
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+            Connection[] connections = new Connection[shards.length];
+            int requestId = nextRequestId.incrementAndGet();
+            for (int i = 0; i < shards.length; i++) {
+                Connection connection = null;
+                try {
+                    connection = borrowConnection(i, deadline);
+                    ShardProtocol.writeGetStatistics(connection.out, requestId);
+                    connection.out.flush();
+                    connections[i] = connection;
+                } catch (IOException ex) {
+                    closeQuietly(connection);
+                }
+            }
+            CorpusStatistics total = new CorpusStatistics();
+            for (int i = 0; i < shards.length; i++) {
+                try {
+                    if (connections[i] != null) {
+                        connections[i].socket.setSoTimeout(remainingMillis(deadline));
+                        total.addAll(ShardProtocol.readStatisticsResponse(connections[i].in, requestId));
+                    }
+                } catch (IOException ex) {
+                    closeQuietly(connections[i]);
+                    connections[i] = null;
+                }
+            }
+
+            // Versions are random, so shards never mistake statistics from
+            // another coordinator (or an earlier run) for the current ones.
+            long version;
+            do {
+                version = ThreadLocalRandom.current().nextLong();
+            } while (version == 0 || version == statisticsVersion);
+            requestId = nextRequestId.incrementAndGet();
+            for (int i = 0; i < shards.length; i++) {
+                try {
+                    if (connections[i] != null) {
+                        ShardProtocol.writeSetStatistics(connections[i].out, requestId, version, total);
+                        connections[i].out.flush();
+                    }
+                } catch (IOException ex) {
+                    closeQuietly(connections[i]);
+                    connections[i] = null;
+                }
+            }
+            // Shards recompute every norm before answering, which may take
+            // longer than a search. One that is still busy will hold the new
+            // statistics by the time it answers any search, so it counts; one
+            // that doesn't will reject searches as stale, causing a refresh.
+            deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            int included = 0;
+            for (int i = 0; i < shards.length; i++) {
+                try {
+                    if (connections[i] != null) {
+                        connections[i].socket.setSoTimeout(remainingMillis(deadline));
+                        ShardProtocol.readOk(connections[i].in, requestId);
+                        included++;
+                        releaseConnection(i, connections[i]);
+                    }
+                } catch (SocketTimeoutException ex) {
+                    included++;
+                    closeQuietly(connections[i]);
+                } catch (IOException ex) {
+                    closeQuietly(connections[i]);
+                }
+            }
+            statisticsVersion = version;
+            if (included < shards.length) {
+                statisticsStale = true;
+                nextRefreshNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(STATISTICS_RETRY_MILLIS);
+            }
+            return included;
+        } finally {
+            statisticsLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Closes every idle connection. Searches still running finish normally.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Shard shard : shards) {
+            Connection connection;
+            while ((connection = shard.idleConnections.poll()) != null) {
+                closeQuietly(connection);
+            }
+        }
+    }
+
+    private Connection borrowConnection(int shard, long deadline) throws IOException {
+        Connection connection = shards[shard].idleConnections.poll();
+        if (connection != null) {
+            return connection;
+        }
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(shards[shard].address, remainingMillis(deadline));
+            return new Connection(socket);
+        } catch (IOException ex) {
+            socket.close();
+            throw ex;
+        }
+    }
+
+    private void releaseConnection(int shard, Connection connection) {
+        if (closed) {
+            closeQuietly(connection);
+        } else {
+            shards[shard].idleConnections.add(connection);
+        }
+    }
+
+    /**
+     * Returns the number of milliseconds left until the deadline (at least 1,
+     * since a timeout of 0 means no timeout at all to sockets).
+     *
+     * @throws SocketTimeoutException  if the deadline has passed
+     */
+    private static int remainingMillis(long deadline) throws SocketTimeoutException {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+            throw new SocketTimeoutException();
+        }
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, TimeUnit.NANOSECONDS.toMillis(remaining)));
+    }
+
+    private static void closeQuietly(Connection connection) {
+        if (connection != null) {
+            try {
+                connection.socket.close();
+            } catch (IOException ex) {
+                // Nothing more to do.
+            }
+        }
+    }
+
+    private static class Shard {
+        private final InetSocketAddress address;
+        private final ConcurrentLinkedQueue<Connection> idleConnections;
+
+        Shard(InetSocketAddress address) {
+            this.address = address;
+            this.idleConnections = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    private static class Connection {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+    }
+
+    /**
+     * Launches shard servers as local processes and answers queries read from
+     * standard input, one per line, until it ends.
+     *
+     * Usage: ShardCoordinator corpusFolder indexFolder shardCount [timeoutMillis]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3 || args.length > 4) {
+            System.err.println("Usage: ShardCoordinator corpusFolder indexFolder shardCount [timeoutMillis]");
+            System.exit(2);
+        }
+        File corpusFolder = new File(args[0]);
+        File indexFolder = new File(args[1]);
+        int shardCount = Integer.parseInt(args[2]);
+        int timeoutMillis = args.length == 4 ? Integer.parseInt(args[3]) : 1000;
+
+        try (LocalShardCluster cluster = LocalShardCluster.launch(corpusFolder, indexFolder, shardCount);
+                ShardCoordinator coordinator = new ShardCoordinator(cluster.getAddresses(), timeoutMillis)) {
+            BufferedReader input = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+            String line;
+            while ((line = input.readLine()) != null) {
+                Results results = coordinator.search(WordTokenizer.extract(line), 10);
+                for (SearchResult result : results.getResults()) {
+                    System.out.println(result);
+                }
+                if (results.isPartial()) {
+                    System.out.println(String.format("(partial: %d of %d shards answered)",
+                            results.getShardsAnswered(), results.getShardCount()));
+                }
+            }
+        }
+    }
+}
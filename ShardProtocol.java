@@ -0,0 +1,299 @@
+package search.cluster;
+
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.concrete.dictionaries.KVPair;
+import datastructures.interfaces.IList;
+import search.analyzers.CorpusStatistics;
+import search.analyzers.SearchResult;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+
+/**
+ * Reads and writes the messages exchanged between a ShardCoordinator and its
+ * ShardServers. Every connection carries a sequence of requests from the
+ * coordinator, each answered in order by exactly one response from the shard.
+ *
+ * Every request starts with:
+ *
+ *   int     MAGIC
+ *   byte    the request type: SEARCH, GET_STATISTICS or SET_STATISTICS
+ *   int     request id, chosen by the coordinator
+ *
+ * followed, for SEARCH, by:
+ *
+ *   int     k, the number of results wanted (shards answer at most
+ *           MAX_RESULTS)
+ *   long    the version of the global statistics to score with
+ *   int     number of query words, followed by each word as a string
+ *
+ * and, for SET_STATISTICS, by a version (a non-zero long) and statistics.
+ *
+ * Every response starts with:
+ *
+ *   int     MAGIC
+ *   int     the id of the request it answers
+ *   byte    OK, ERROR or STALE
+ *
+ * If OK, this is followed:
+ *
+ * - for SEARCH, by the number of results, and each result as a double score
+ *   and a string URI, from largest to smallest according to
+ *   SearchResult.compareTo(...),
+ * - for GET_STATISTICS, by the shard's own statistics,
+ * - for SET_STATISTICS, by nothing.
+ *
+ * If ERROR, it is followed by a string describing what went wrong. STALE
+ * answers a SEARCH for a version of the global statistics other than the one
+ * the shard last received, and is followed by nothing.
+ *
+ * Statistics (see CorpusStatistics) are an int document count, then the
+ * number of words, followed by each word as a string and its int document
+ * frequency.
+ *
+ * Strings use DataOutput.writeUTF (a two-byte length, then modified UTF-8).
+ */
+final class ShardProtocol {
+    // The first byte is zero, like the other binary formats in this project.
+    static final int MAGIC = 0x00575352;
+    static final byte SEARCH = 1;
+    static final byte GET_STATISTICS = 2;
+    static final byte SET_STATISTICS = 3;
+    static final byte OK = 0;
+    static final byte ERROR = 1;
+    static final byte STALE = 2;
+
+    // Guard against allocating huge arrays when reading a corrupt (or
+    // hostile) message. k is capped to MAX_RESULTS, which a search can never
+    // legitimately exceed, since no response may carry more.
+    static final int MAX_RESULTS = 1 << 20;
+    private static final int MAX_COUNT = 1 << 20;
+    private static final int MAX_TERMS = 1 << 26;
+
+    private ShardProtocol() {}
+
+    /**
+     * A request, as read by a shard. Only the fields of its type are set.
+     */
+    static class Request {
+        final byte type;
+        final int id;
+        final int k;
+        final long version;
+        final IList<String> query;
+        final CorpusStatistics statistics;
+
+        Request(byte type, int id, int k, long version, IList<String> query, CorpusStatistics statistics) {
+            this.type = type;
+            this.id = id;
+            this.k = k;
+            this.version = version;
+            this.query = query;
+            this.statistics = statistics;
+        }
+    }
+
+    /**
+     * Thrown by readResults(...) when the shard answered STALE.
+     */
+    static class StaleStatisticsException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        StaleStatisticsException() {
+            super("Shard has different global statistics");
+        }
+    }
+
+    static void writeSearch(DataOutput out, int requestId, int k, long version, IList<String> query)
+            throws IOException {
+        writeRequestHeader(out, SEARCH, requestId);
+        out.writeInt(Math.min(k, MAX_RESULTS));
+        out.writeLong(version);
+        out.writeInt(query.size());
+        for (String word : query) {
+            out.writeUTF(word);
+        }
+    }
+
+    static void writeGetStatistics(DataOutput out, int requestId) throws IOException {
+        writeRequestHeader(out, GET_STATISTICS, requestId);
+    }
+
+    static void writeSetStatistics(DataOutput out, int requestId, long version, CorpusStatistics statistics)
+            throws IOException {
+        writeRequestHeader(out, SET_STATISTICS, requestId);
+        out.writeLong(version);
+        writeStatistics(out, statistics);
+    }
+
+    /**
+     * Reads the next request.
+     *
+     * @throws java.io.EOFException  if the connection was closed before the
+     *                               request started
+     * @throws IOException  if the request is malformed
+     */
+    static Request readRequest(DataInput in) throws IOException {
+        checkMagic(in.readInt());
+        byte type = in.readByte();
+        int id = in.readInt();
+        if (type == SEARCH) {
+            int k = in.readInt();
+            long version = in.readLong();
+            int count = readCount(in, MAX_COUNT);
+            if (k < 0) {
+                throw new IOException("Malformed request");
+            }
+            IList<String> query = new DoubleLinkedList<>();
+            for (int i = 0; i < count; i++) {
+                query.add(in.readUTF());
+            }
+            return new Request(type, id, Math.min(k, MAX_RESULTS), version, query, null);
+        } else if (type == GET_STATISTICS) {
+            return new Request(type, id, 0, 0, null, null);
+        } else if (type == SET_STATISTICS) {
+            long version = in.readLong();
+            if (version == 0) {
+                throw new IOException("Malformed request");
+            }
+            return new Request(type, id, 0, version, null, readStatistics(in));
+        }
+        throw new IOException("Unknown request type " + type);
+    }
+
+    static void writeResults(DataOutput out, int requestId, IList<SearchResult> results) throws IOException {
+        writeResponseHeader(out, requestId, OK);
+        out.writeInt(results.size());
+        for (SearchResult result : results) {
+            out.writeDouble(result.getScore());
+            out.writeUTF(result.getUri().toString());
+        }
+    }
+
+    static void writeStatisticsResponse(DataOutput out, int requestId, CorpusStatistics statistics)
+            throws IOException {
+        writeResponseHeader(out, requestId, OK);
+        writeStatistics(out, statistics);
+    }
+
+    static void writeOk(DataOutput out, int requestId) throws IOException {
+        writeResponseHeader(out, requestId, OK);
+    }
+
+    static void writeStale(DataOutput out, int requestId) throws IOException {
+        writeResponseHeader(out, requestId, STALE);
+    }
+
+    static void writeError(DataOutput out, int requestId, String message) throws IOException {
+        writeResponseHeader(out, requestId, ERROR);
+        out.writeUTF(message != null ? message : "");
+    }
+
+    /**
+     * Reads the response to the search with the given id.
+     *
+     * @throws StaleStatisticsException  if the shard answered STALE
+     * @throws IOException  if the response is malformed, answers a different
+     *                      request, or reports an error
+     */
+    static IList<SearchResult> readResults(DataInput in, int requestId) throws IOException {
+        readResponseHeader(in, requestId);
+        int count = readCount(in, MAX_COUNT);
+        IList<SearchResult> results = new DoubleLinkedList<>();
+        for (int i = 0; i < count; i++) {
+            double score = in.readDouble();
+            try {
+                results.add(new SearchResult(new URI(in.readUTF()), score));
+            } catch (URISyntaxException ex) {
+                throw new IOException("Malformed result URI", ex);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Reads the response to the GET_STATISTICS request with the given id.
+     *
+     * @throws IOException  if the response is malformed, answers a different
+     *                      request, or reports an error
+     */
+    static CorpusStatistics readStatisticsResponse(DataInput in, int requestId) throws IOException {
+        readResponseHeader(in, requestId);
+        return readStatistics(in);
+    }
+
+    /**
+     * Reads the response to the SET_STATISTICS request with the given id.
+     *
+     * @throws IOException  if the response is malformed, answers a different
+     *                      request, or reports an error
+     */
+    static void readOk(DataInput in, int requestId) throws IOException {
+        readResponseHeader(in, requestId);
+    }
+
+    private static void writeRequestHeader(DataOutput out, byte type, int requestId) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(type);
+        out.writeInt(requestId);
+    }
+
+    private static void writeResponseHeader(DataOutput out, int requestId, byte status) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(requestId);
+        out.writeByte(status);
+    }
+
+    private static void readResponseHeader(DataInput in, int requestId) throws IOException {
+        checkMagic(in.readInt());
+        int id = in.readInt();
+        if (id != requestId) {
+            throw new IOException("Expected response " + requestId + ", got " + id);
+        }
+        byte status = in.readByte();
+        if (status == ERROR) {
+            throw new IOException("Shard failed: " + in.readUTF());
+        } else if (status == STALE) {
+            throw new StaleStatisticsException();
+        } else if (status != OK) {
+            throw new IOException("Unknown response status " + status);
+        }
+    }
+
+    private static void writeStatistics(DataOutput out, CorpusStatistics statistics) throws IOException {
+        out.writeInt(statistics.getDocumentCount());
+        out.writeInt(statistics.size());
+        for (KVPair<String, Integer> pair : statistics) {
+            out.writeUTF(pair.getKey());
+            out.writeInt(pair.getValue());
+        }
+    }
+
+    private static CorpusStatistics readStatistics(DataInput in) throws IOException {
+        CorpusStatistics statistics = new CorpusStatistics();
+        statistics.addDocuments(readCount(in, Integer.MAX_VALUE));
+        int count = readCount(in, MAX_TERMS);
+        for (int i = 0; i < count; i++) {
+            String term = in.readUTF();
+            statistics.addTerm(term, readCount(in, Integer.MAX_VALUE));
+        }
+        return statistics;
+    }
+
+    private static void checkMagic(int magic) throws IOException {
+        if (magic != MAGIC) {
+            throw new IOException("Not a shard protocol message");
+        }
+    }
+
+    private static int readCount(DataInput in, int max) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > max) {
+            throw new IOException("Malformed count " + count);
+        }
+        return count;
+    }
+}
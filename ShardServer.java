@@ -0,0 +1,278 @@
+package search.cluster;
+
+import datastructures.concrete.ChainedHashSet;
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.interfaces.IList;
+import datastructures.interfaces.ISet;
+import search.analyzers.SearchResult;
+import search.analyzers.TfIdfAnalyzer;
+import search.models.Webpage;
+import search.models.WebpageLoader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Serves searches over one shard of the corpus to ShardCoordinators, using
+ * the binary protocol described in ShardProtocol.
+ *
+ * Every connection is handled by its own thread, and answers its requests in
+ * order. A coordinator keeps a few connections open and reuses them, so a
+ * search doesn't have to pay for connecting.
+ *
+ * IDF scores depend on the whole corpus, so a shard only answers searches
+ * once its coordinator has given it the statistics of every shard (see
+ * TfIdfAnalyzer.setGlobalStatistics), and only for the version of them it was
+ * given last. Its scores then match those of a single index over the whole
+ * corpus.
+ */
+public class ShardServer implements Closeable {
+    // How long to wait before accepting connections again after a failure
+    // (such as running out of file descriptors), at first and at most.
+    private static final long MIN_ACCEPT_BACKOFF_MILLIS = 10;
+    private static final long MAX_ACCEPT_BACKOFF_MILLIS = 5000;
+
+    private final TfIdfAnalyzer analyzer;
+    private final ServerSocket serverSocket;
+    private final Set<Socket> connections;
+    private volatile boolean closed;
+
+    // The version of the global statistics the analyzer scores with, or 0
+    // before the coordinator sent any. Searches hold the read lock from
+    // checking the version until they have their results, so the statistics
+    // (only changed under the write lock) can't change in between.
+    private final ReentrantReadWriteLock statisticsLock = new ReentrantReadWriteLock();
+    private long statisticsVersion;
+
+    /**
+     * Starts serving the given analyzer on the given port of the loopback
+     * interface. Use port 0 to pick any free port (see getPort()).
+     */
+    public ShardServer(TfIdfAnalyzer analyzer, int port) throws IOException {
+        this(analyzer, new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    /**
+     * Starts serving the given analyzer on the given address.
+     */
+    public ShardServer(TfIdfAnalyzer analyzer, InetSocketAddress address) throws IOException {
+        this.analyzer = analyzer;
+        this.serverSocket = new ServerSocket();
+        this.serverSocket.bind(address);
+        this.connections = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        this.closed = false;
+
+        Thread acceptor = new Thread(this::acceptConnections, "shard-server-" + getPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Returns the port this server is listening on.
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Stops accepting connections and closes every open one.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        for (Socket socket : connections) {
+            socket.close();
+        }
+    }
+
+    private void acceptConnections() {
+        long backoff = MIN_ACCEPT_BACKOFF_MILLIS;
+        while (!closed) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+                backoff = MIN_ACCEPT_BACKOFF_MILLIS;
+            } catch (IOException ex) {
+                if (closed || serverSocket.isClosed()) {
+                    break;
+                }
+                // Most likely out of file descriptors: retrying right away
+                // would just fail again, so give connections time to close.
+                System.err.println("Shard server on port " + getPort() + " could not accept a connection ("
+                        + ex + "), retrying in " + backoff + " ms");
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException interrupted) {
+                    break;
+                }
+                backoff = Math.min(backoff * 2, MAX_ACCEPT_BACKOFF_MILLIS);
+                continue;
+            }
+            connections.add(socket);
+            Thread handler = new Thread(() -> serve(socket), "shard-connection-" + socket.getPort());
+            handler.setDaemon(true);
+            handler.start();
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            while (!closed) {
+                ShardProtocol.Request request;
+                try {
+                    request = ShardProtocol.readRequest(in);
+                } catch (EOFException ex) {
+                    // The coordinator closed the connection.
+                    break;
+                }
+                try {
+                    answer(request, out);
+                } catch (RuntimeException ex) {
+                    ShardProtocol.writeError(out, request.id, ex.toString());
+                }
+                out.flush();
+            }
+        } catch (IOException ex) {
+            // A malformed request or a broken connection: there's nobody left
+            // to report it to, so just drop the connection.
+        } finally {
+            connections.remove(socket);
+            try {
+                socket.close();
+            } catch (IOException ex) {
+                // Nothing more to do.
+            }
+        }
+    }
+
+    /**
+     * Writes the response to the given request. Search results come straight
+     * from TfIdfAnalyzer.search(...), which already orders them from largest
+     * to smallest by SearchResult.compareTo(...), as Sorter.mergeTopK(...) on
+     * the coordinator requires.
+     */
+    private void answer(ShardProtocol.Request request, DataOutputStream out) throws IOException {
+        if (request.type == ShardProtocol.GET_STATISTICS) {
+            ShardProtocol.writeStatisticsResponse(out, request.id, analyzer.getCorpusStatistics());
+        } else if (request.type == ShardProtocol.SET_STATISTICS) {
+            statisticsLock.writeLock().lock();
+            try {
+                analyzer.setGlobalStatistics(request.statistics);
+                statisticsVersion = request.version;
+            } finally {
+                statisticsLock.writeLock().unlock();
+            }
+            ShardProtocol.writeOk(out, request.id);
+        } else {
+            IList<SearchResult> results = null;
+            statisticsLock.readLock().lock();
+            try {
+                if (request.version != 0 && request.version == statisticsVersion) {
+                    results = analyzer.search(request.query, request.k);
+                }
+            } finally {
+                statisticsLock.readLock().unlock();
+            }
+            if (results == null) {
+                ShardProtocol.writeStale(out, request.id);
+            } else {
+                ShardProtocol.writeResults(out, request.id, results);
+            }
+        }
+    }
+
+    /**
+     * Returns every page file (ending in .html) in the given corpus folder
+     * that belongs to the given shard. Pages are assigned to shards by a hash
+     * of their path within the folder, so every shard gets about the same
+     * number of pages, and every page the same shard on every run.
+     */
+    public static IList<URI> findShardPages(File corpusFolder, int shard, int shardCount) throws IOException {
+        if (shardCount < 1 || shard < 0 || shard >= shardCount) {
+            throw new IllegalArgumentException();
+        }
+        IList<URI> output = new DoubleLinkedList<>();
+        findShardPages(corpusFolder, "", shard, shardCount, output);
+        return output;
+    }
+
+    private static void findShardPages(File folder, String prefix, int shard, int shardCount,
+                                       IList<URI> output) throws IOException {
+        File[] children = folder.listFiles();
+        if (children == null) {
+            throw new IOException("Could not list " + folder);
+        }
+        Arrays.sort(children);
+        for (File child : children) {
+            String path = prefix + child.getName();
+            if (child.isDirectory()) {
+                findShardPages(child, path + "/", shard, shardCount, output);
+            } else if (path.endsWith(".html") && Math.floorMod(path.hashCode(), shardCount) == shard) {
+                output.add(child.toURI());
+            }
+        }
+    }
+
+    /**
+     * Runs a shard server as its own process.
+     *
+     * Usage: ShardServer corpusFolder shard shardCount indexFile [port]
+     *
+     * Indexes this shard's pages of the corpus (or loads the index from
+     * indexFile, if it is up to date), then listens on the given port of the
+     * loopback interface (any free port by default) and prints "READY port"
+     * on a line of its own. Exits once its standard input is closed, so it
+     * never outlives the process that launched it.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 4 || args.length > 5) {
+            System.err.println("Usage: ShardServer corpusFolder shard shardCount indexFile [port]");
+            System.exit(2);
+        }
+        File corpusFolder = new File(args[0]);
+        int shard = Integer.parseInt(args[1]);
+        int shardCount = Integer.parseInt(args[2]);
+        File indexFile = new File(args[3]);
+        int port = args.length == 5 ? Integer.parseInt(args[4]) : 0;
+
+        TfIdfAnalyzer analyzer = TfIdfAnalyzer.loadOrBuild(indexFile, corpusFolder, () -> {
+            try {
+                ISet<Webpage> pages = new ChainedHashSet<>();
+                for (Webpage page : WebpageLoader.loadAll(findShardPages(corpusFolder, shard, shardCount))) {
+                    pages.add(page);
+                }
+                return pages;
+            } catch (IOException ex) {
+                throw new RuntimeException("Could not list corpus pages", ex);
+            }
+        });
+
+        try (ShardServer server = new ShardServer(analyzer, port)) {
+            System.out.println("READY " + server.getPort());
+            System.out.flush();
+            while (System.in.read() != -1) {
+                // Ignore input; we only wait for it to end.
+            }
+        }
+    }
+}
@@ -40,31 +40,84 @@ public class Sorter {
         if (k < 0 || input == null) {
             throw new IllegalArgumentException();
         }
-        IPriorityQueue<T> heap = new ArrayHeap<>();
-        IList<T> list = new DoubleLinkedList<>();
-        Iterator<T> iter = input.iterator();
-        if (k == 0 || input.size() == 0) {
+        // size() isn't necessarily O(1), so only ask once.
+        int size = input.size();
+        if (k == 0 || size == 0) {
+            return new DoubleLinkedList<>();
+        } else if (k >= size) { // we want the entire input
+            // Build the heap bottom-up in linear time instead of adding one by one.
+            IPriorityQueue<T> heap = new ArrayHeap<>(input, false);
+            IList<T> list = new DoubleLinkedList<>();
+            for (int i = 0; i < size; i++) {
+                list.add(heap.removeMin());
+            }
             return list;
-        } else { // input size greater than 1
-            if (k > input.size()) { // if we want more than the size of input
-                k = input.size(); // we want the entire input
+        }
+        TopKCollector<T> collector = new TopKCollector<>(k);
+        for (T item : input) {
+            collector.offer(item);
+        }
+        return collector.result();
+    }
+
+    /**
+     * Merges lists that are each already sorted from largest to smallest (for
+     * example, the results of several search shards), and returns the k largest
+     * items overall, from largest to smallest.
+     *
+     * Only the first k items of each list are ever looked at, and the merge
+     * takes O(k log m) time for m lists, no matter how long the lists are.
+     *
+     * This method must not modify the input lists.
+     *
+     * @throws IllegalArgumentException  if k < 0, or the list of lists or any
+     *                                   of the lists is null
+     */
+    public static <T extends Comparable<T>> IList<T> mergeTopK(int k, IList<IList<T>> sortedLists) {
+        if (k < 0 || sortedLists == null) {
+            throw new IllegalArgumentException();
+        }
+        ArrayHeap<MergeHead<T>> heads = new ArrayHeap<>(false);
+        for (IList<T> list : sortedLists) {
+            if (list == null) {
+                throw new IllegalArgumentException();
+            }
+            Iterator<T> iter = list.iterator();
+            if (iter.hasNext()) {
+                heads.add(new MergeHead<>(iter.next(), iter));
             }
-            for (int i = 0; i < input.size(); i++) { // go through the input
-                if (i < k) {
-                    T item = iter.next();
-                    heap.add(item);
-                } else {
-                    T item = iter.next();
-                    if (item.compareTo(heap.peekMin()) > 0) {
-                        heap.removeMin();
-                        heap.add(item);
-                    }
-                }
+        }
+        IList<T> output = new DoubleLinkedList<>();
+        for (int i = 0; i < k && heads.size() > 0; i++) {
+            MergeHead<T> head = heads.peekMin();
+            output.add(head.item);
+            if (head.rest.hasNext()) {
+                head.item = head.rest.next();
+                heads.replaceMin(head);
+            } else {
+                heads.removeMin();
             }
         }
-        for (int i = 0; i < k; i++) {
-            list.add(heap.removeMin());
+        return output;
+    }
+
+    /**
+     * The next item of one of the lists being merged by mergeTopK, along with
+     * the rest of that list. Ordered in reverse, so the head with the largest
+     * item comes out of the (min-)heap first.
+     */
+    private static class MergeHead<T extends Comparable<T>> implements Comparable<MergeHead<T>> {
+        private T item;
+        private final Iterator<T> rest;
+
+        MergeHead(T item, Iterator<T> rest) {
+            this.item = item;
+            this.rest = rest;
+        }
+
+        @Override
+        public int compareTo(MergeHead<T> other) {
+            return other.item.compareTo(this.item);
         }
-        return list;
     }
-}
\ No newline at end of file
+}
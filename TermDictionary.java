@@ -0,0 +1,67 @@
+package search.analyzers;
+
+import datastructures.concrete.dictionaries.ChainedHashDictionary;
+import datastructures.interfaces.IDictionary;
+
+/**
+ * Assigns every distinct word a dense integer id, starting from 0, in the
+ * order the words are first seen.
+ *
+ * Once a word has an id, the rest of the index refers to it only by that id,
+ * so each word's string is stored exactly once no matter how many documents
+ * contain it.
+ */
+public class TermDictionary {
+    private IDictionary<String, Integer> ids;
+    private String[] terms;
+    private int size;
+
+    public TermDictionary() {
+        this.ids = new ChainedHashDictionary<>();
+        this.terms = new String[16];
+        this.size = 0;
+    }
+
+    /**
+     * Returns the id of the given word, assigning it the next free id if it
+     * has not been seen before.
+     */
+    public int getOrAssignId(String term) {
+        Integer id = ids.getOrDefault(term, null);
+        if (id != null) {
+            return id;
+        }
+        if (size == terms.length) {
+            String[] newTerms = new String[size * 2];
+            System.arraycopy(terms, 0, newTerms, 0, size);
+            terms = newTerms;
+        }
+        terms[size] = term;
+        ids.put(term, size);
+        size++;
+        return size - 1;
+    }
+
+    /**
+     * Returns the id of the given word, or -1 if the word has no id.
+     */
+    public int getId(String term) {
+        return ids.getOrDefault(term, -1);
+    }
+
+    /**
+     * Returns the word with the given id.
+     *
+     * @throws IndexOutOfBoundsException  if no word has the given id
+     */
+    public String getTerm(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException();
+        }
+        return terms[id];
+    }
+
+    public int size() {
+        return size;
+    }
+}
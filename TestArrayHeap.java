@@ -1,6 +1,8 @@
 package datastructures;
 
 import datastructures.concrete.ArrayHeap;
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.interfaces.IList;
 import datastructures.interfaces.IPriorityQueue;
 import misc.BaseTest;
 import misc.exceptions.EmptyContainerException;
@@ -13,6 +15,7 @@ import java.util.Arrays;
 import java.util.Random;
 
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 /**
@@ -631,6 +634,133 @@ public class TestArrayHeap extends BaseTest {
         }
     }
 
+    @Test(timeout=SECOND)
+    public void testUntrackedAllowsDuplicates() {
+        IPriorityQueue<IntWrapper> heap = new ArrayHeap<>(false);
+        IntWrapper[] values = IntWrapper.createArray(new int[]{5, 3, 8, 1, 9, 2});
+        for (IntWrapper value : values) {
+            heap.add(value);
+        }
+        heap.add(values[1]);
+        assertEquals(7, heap.size());
+
+        int[] expected = {1, 2, 3, 3, 5, 8, 9};
+        for (int value : expected) {
+            assertEquals(value, heap.removeMin().val);
+        }
+        assertTrue(heap.isEmpty());
+    }
+
+    @Test(timeout=SECOND)
+    public void testUntrackedUnsupported() {
+        IPriorityQueue<IntWrapper> heap = new ArrayHeap<>(false);
+        IntWrapper value = new IntWrapper(3);
+        heap.add(value);
+        try {
+            heap.contains(value);
+            fail("Expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException ex) {
+            // Do nothing: this is ok
+        }
+        try {
+            heap.remove(value);
+            fail("Expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException ex) {
+            // Do nothing: this is ok
+        }
+        try {
+            heap.replace(value, new IntWrapper(4));
+            fail("Expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException ex) {
+            // Do nothing: this is ok
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testBulkConstructor() {
+        Random rand = new Random(373);
+        IList<IntWrapper> input = new DoubleLinkedList<>();
+        int[] expected = new int[500];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = rand.nextInt();
+            input.add(new IntWrapper(expected[i]));
+        }
+        IPriorityQueue<IntWrapper> heap = new ArrayHeap<>(input);
+        assertEquals(expected.length, heap.size());
+        assertTrue(getArray(heap).length >= expected.length);
+        assertTrue(heap.contains(input.get(42)));
+
+        Arrays.sort(expected);
+        for (int value : expected) {
+            assertEquals(value, heap.removeMin().val);
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testAddAllAfterAdd() {
+        ArrayHeap<IntWrapper> heap = new ArrayHeap<>();
+        IntWrapper[] values = IntWrapper.createArray(new int[]{7, -2, 11, 4, 0, 3, 9, -8});
+        IList<IntWrapper> rest = new DoubleLinkedList<>();
+        for (int i = 0; i < values.length; i++) {
+            if (i < 3) {
+                heap.add(values[i]);
+            } else {
+                rest.add(values[i]);
+            }
+        }
+        heap.addAll(rest);
+        assertEquals(values.length, heap.size());
+
+        heap.remove(values[4]);
+        int[] expected = {-8, -2, 3, 4, 7, 9, 11};
+        for (int value : expected) {
+            assertEquals(value, heap.removeMin().val);
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testAddAllDuplicateLeavesHeapUnchanged() {
+        ArrayHeap<IntWrapper> heap = new ArrayHeap<>();
+        IntWrapper[] values = IntWrapper.createArray(new int[]{5, 1, 3});
+        heap.add(values[0]);
+        IList<IntWrapper> rest = new DoubleLinkedList<>();
+        rest.add(values[1]);
+        rest.add(values[2]);
+        rest.add(values[1]);
+        try {
+            heap.addAll(rest);
+            fail("Expected InvalidElementException");
+        } catch (InvalidElementException ex) {
+            // Do nothing: this is ok
+        }
+        assertEquals(1, heap.size());
+        assertFalse(heap.contains(values[1]));
+        assertEquals(5, heap.removeMin().val);
+    }
+
+    @Test(timeout=SECOND)
+    public void testReplaceMin() {
+        ArrayHeap<IntWrapper> heap = new ArrayHeap<>();
+        IntWrapper[] values = IntWrapper.createArray(new int[]{4, 2, 6, 8});
+        heap.add(values[0]);
+        heap.add(values[1]);
+        heap.add(values[2]);
+        assertEquals(2, heap.replaceMin(values[3]).val);
+        assertEquals(3, heap.size());
+        assertFalse(heap.contains(values[1]));
+        assertTrue(heap.contains(values[3]));
+        assertEquals(4, heap.removeMin().val);
+        assertEquals(6, heap.removeMin().val);
+        assertEquals(8, heap.removeMin().val);
+
+        try {
+            heap.replaceMin(values[0]);
+            fail("Expected EmptyContainerException");
+        } catch (EmptyContainerException ex) {
+            // Do nothing: this is ok
+        }
+    }
+
     /**
      * A helper method for accessing the private array inside a heap using reflection.
      */
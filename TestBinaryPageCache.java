@@ -0,0 +1,114 @@
+package search.models;
+
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.interfaces.IList;
+import misc.BaseTest;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * See spec for details on what kinds of tests this class should include.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class TestBinaryPageCache extends BaseTest {
+    protected static Webpage page() {
+        IList<String> words = new DoubleLinkedList<>();
+        for (String word : "the cat sat on the mat café the end".split(" ")) {
+            words.add(word);
+        }
+        IList<URI> links = new DoubleLinkedList<>();
+        links.add(URI.create("http://a.com/b?c=d#e"));
+        links.add(URI.create("http://x.com/y"));
+        return new Webpage(URI.create("http://page.com"), links, words, "Title ü", "Blurb");
+    }
+
+    protected static void assertPagesMatch(Webpage expected, Webpage actual) {
+        assertEquals(expected.getUri(), actual.getUri());
+        assertEquals(expected.getSummary().getTitle(), actual.getSummary().getTitle());
+        assertEquals(expected.getSummary().getBlurb(), actual.getSummary().getBlurb());
+        assertEquals(expected.getWords().size(), actual.getWords().size());
+        for (int i = 0; i < expected.getWords().size(); i++) {
+            assertEquals(expected.getWords().get(i), actual.getWords().get(i));
+        }
+        assertEquals(expected.getLinks().size(), actual.getLinks().size());
+        for (int i = 0; i < expected.getLinks().size(); i++) {
+            assertEquals(expected.getLinks().get(i), actual.getLinks().get(i));
+        }
+    }
+
+    protected static void deleteFolder(File folder) {
+        File[] children = folder.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                child.delete();
+            }
+        }
+        folder.delete();
+    }
+
+    @Test(timeout=SECOND)
+    public void testRoundTrip() throws IOException {
+        File folder = Files.createTempDirectory("cache").toFile();
+        try {
+            File file = new File(folder, "page.cache");
+            Webpage page = page();
+            BinaryPageCache.write(page, file);
+            // Writing again replaces the file, and leaves no temporary file behind.
+            BinaryPageCache.write(page, file);
+            assertEquals(1, folder.listFiles().length);
+
+            ByteBuffer contents = BinaryPageCache.readFile(file);
+            assertTrue(BinaryPageCache.isBinary(contents));
+            assertPagesMatch(page, BinaryPageCache.read(contents));
+            assertPagesMatch(page, Webpage.decodeCache(BinaryPageCache.readFile(file)));
+        } finally {
+            deleteFolder(folder);
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testTruncatedFileNeedsRegenerating() throws IOException {
+        File folder = Files.createTempDirectory("cache").toFile();
+        try {
+            File file = new File(folder, "page.cache");
+            BinaryPageCache.write(page(), file);
+            long length = file.length();
+            // Every truncation (past the header) must ask for the cache to be
+            // regenerated rather than fail.
+            for (long truncated = length - 1; truncated >= 8; truncated--) {
+                try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                    raf.setLength(truncated);
+                }
+                assertNull(Webpage.decodeCache(BinaryPageCache.readFile(file)));
+            }
+        } finally {
+            deleteFolder(folder);
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testUnknownVersionNeedsRegenerating() throws IOException {
+        File folder = Files.createTempDirectory("cache").toFile();
+        try {
+            File file = new File(folder, "page.cache");
+            BinaryPageCache.write(page(), file);
+            ByteBuffer contents = BinaryPageCache.readFile(file);
+            assertNotNull(BinaryPageCache.read(contents.duplicate()));
+            contents.putInt(4, BinaryPageCache.VERSION + 1);
+            assertNull(BinaryPageCache.read(contents));
+        } finally {
+            deleteFolder(folder);
+        }
+    }
+}
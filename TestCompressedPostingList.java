@@ -0,0 +1,168 @@
+package search.analyzers;
+
+import misc.BaseTest;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.fail;
+
+/**
+ * See spec for details on what kinds of tests this class should include.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class TestCompressedPostingList extends BaseTest {
+    /**
+     * Returns 'size' increasing document ids, mostly close together but with
+     * the occasional large gap.
+     */
+    protected static int[] randomDocIds(Random rand, int size) {
+        int[] docIds = new int[size];
+        int docId = -1;
+        for (int i = 0; i < size; i++) {
+            docId += 1 + (rand.nextInt(10) == 0 ? rand.nextInt(100000) : rand.nextInt(5));
+            docIds[i] = docId;
+        }
+        return docIds;
+    }
+
+    protected static CompressedPostingList list(int[] docIds, int[] counts) {
+        CompressedPostingList list = new CompressedPostingList();
+        for (int i = 0; i < docIds.length; i++) {
+            list.add(docIds[i], counts[i]);
+        }
+        return list;
+    }
+
+    protected static void assertPostingsMatch(int[] docIds, int[] counts, CompressedPostingList list) {
+        assertEquals(docIds.length, list.size());
+        CompressedPostingList.Cursor cursor = list.cursor();
+        for (int i = 0; i < docIds.length; i++) {
+            assertFalse(cursor.isExhausted());
+            assertEquals(docIds[i], cursor.docId());
+            assertEquals(counts[i], cursor.count());
+            cursor.next();
+        }
+        assertTrue(cursor.isExhausted());
+    }
+
+    @Test(timeout=SECOND)
+    public void testCursorVisitsEveryPosting() {
+        Random rand = new Random(13);
+        // Sizes around the block size are where off-by-one mistakes hide.
+        int blockSize = BlockPostingList.BLOCK_SIZE;
+        for (int size : new int[] {0, 1, blockSize - 1, blockSize, blockSize + 1, 2 * blockSize, 1000}) {
+            int[] docIds = randomDocIds(rand, size);
+            int[] counts = new int[size];
+            for (int i = 0; i < size; i++) {
+                counts[i] = rand.nextInt(300);
+            }
+            CompressedPostingList list = list(docIds, counts);
+            assertPostingsMatch(docIds, counts, list);
+            list.trimToSize();
+            assertPostingsMatch(docIds, counts, list);
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testAdvanceMatchesLinearScan() {
+        Random rand = new Random(13);
+        for (int trial = 0; trial < 200; trial++) {
+            int[] docIds = randomDocIds(rand, rand.nextInt(1000));
+            int[] counts = new int[docIds.length];
+            for (int i = 0; i < docIds.length; i++) {
+                counts[i] = i;
+            }
+            CompressedPostingList.Cursor cursor = list(docIds, counts).cursor();
+            int target = 0;
+            while (true) {
+                // Small steps stay within a block; large ones skip many.
+                target += rand.nextInt(2) == 0 ? rand.nextInt(10) : rand.nextInt(50000);
+                cursor.advance(target);
+                int expected = Arrays.binarySearch(docIds, target);
+                if (expected < 0) {
+                    expected = -expected - 1;
+                }
+                if (expected == docIds.length) {
+                    assertTrue(cursor.isExhausted());
+                    break;
+                }
+                assertFalse(cursor.isExhausted());
+                assertEquals(docIds[expected], cursor.docId());
+                assertEquals(counts[expected], cursor.count());
+
+                // Advancing to a target behind the cursor leaves it where it is.
+                cursor.advance(target - 1);
+                assertEquals(docIds[expected], cursor.docId());
+                target = cursor.docId();
+            }
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testAdvanceThenNext() {
+        int[] docIds = new int[1000];
+        int[] counts = new int[1000];
+        for (int i = 0; i < docIds.length; i++) {
+            docIds[i] = 3 * i;
+            counts[i] = i % 7;
+        }
+        CompressedPostingList.Cursor cursor = list(docIds, counts).cursor();
+        // Land on the first posting of a block, then walk into the next one.
+        cursor.advance(3 * 2 * BlockPostingList.BLOCK_SIZE - 1);
+        for (int i = 2 * BlockPostingList.BLOCK_SIZE; i < 3 * BlockPostingList.BLOCK_SIZE + 5; i++) {
+            assertEquals(docIds[i], cursor.docId());
+            assertEquals(counts[i], cursor.count());
+            cursor.next();
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testAddOutOfOrderThrowsException() {
+        CompressedPostingList list = new CompressedPostingList();
+        list.add(5, 1);
+        try {
+            list.add(5, 1);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+            // Do nothing: this is ok
+        }
+        try {
+            list.add(6, -1);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+            // Do nothing: this is ok
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testWriteThenRead() throws IOException {
+        Random rand = new Random(13);
+        int[] docIds = randomDocIds(rand, 1000);
+        int[] counts = new int[docIds.length];
+        for (int i = 0; i < docIds.length; i++) {
+            counts[i] = rand.nextInt(100000);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        list(docIds, counts).write(new DataOutputStream(bytes));
+
+        ByteBuffer in = ByteBuffer.wrap(bytes.toByteArray());
+        assertPostingsMatch(docIds, counts, CompressedPostingList.read(in));
+        assertFalse(in.hasRemaining());
+
+        // A list cut short is reported as malformed.
+        try {
+            CompressedPostingList.read(ByteBuffer.wrap(Arrays.copyOf(bytes.toByteArray(), bytes.size() - 1)));
+            fail("Expected IOException");
+        } catch (IOException ex) {
+            // Do nothing: this is ok
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package search.models;
+
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.interfaces.IList;
+import misc.BaseTest;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.nio.file.Files;
+
+import static org.junit.Assert.fail;
+
+/**
+ * See spec for details on what kinds of tests this class should include.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class TestCorpusSegment extends BaseTest {
+    protected static Webpage page(int i, String... words) {
+        IList<String> list = new DoubleLinkedList<>();
+        for (String word : words) {
+            list.add(word);
+        }
+        IList<URI> links = new DoubleLinkedList<>();
+        links.add(URI.create("http://page" + (i + 1) + ".com"));
+        return new Webpage(URI.create("http://page" + i + ".com"), links, list, "Title " + i, "Blurb " + i);
+    }
+
+    protected static IList<Webpage> pages(int count, String word) {
+        IList<Webpage> pages = new DoubleLinkedList<>();
+        for (int i = 0; i < count; i++) {
+            pages.add(page(i, word, "page" + i, word));
+        }
+        return pages;
+    }
+
+    protected static void assertPagesMatch(IList<Webpage> expected, IList<Webpage> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            TestBinaryPageCache.assertPagesMatch(expected.get(i), actual.get(i));
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testRoundTrip() throws IOException {
+        File folder = Files.createTempDirectory("segment").toFile();
+        try {
+            File file = new File(folder, "corpus.segment");
+            IList<Webpage> pages = pages(300, "word");
+            CorpusSegment.write(file, 42, pages);
+            // Nothing but the segment is left behind.
+            assertEquals(1, folder.listFiles().length);
+
+            CorpusSegment segment = CorpusSegment.open(file);
+            assertEquals(300, segment.size());
+            assertEquals(42, segment.getFingerprint());
+            for (int i = segment.size() - 1; i >= 0; i--) {
+                assertEquals(pages.get(i).getUri(), segment.getUri(i));
+                TestBinaryPageCache.assertPagesMatch(pages.get(i), segment.get(i));
+            }
+        } finally {
+            TestBinaryPageCache.deleteFolder(folder);
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testCorruptOffsetTableFailsToOpen() throws IOException {
+        File folder = Files.createTempDirectory("segment").toFile();
+        try {
+            File file = new File(folder, "corpus.segment");
+            CorpusSegment.write(file, 42, pages(10, "word"));
+            long length = file.length();
+            // The offset of the last record is just before the 16-byte footer;
+            // point it past the end of the file.
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.seek(length - 16 - 8);
+                raf.writeLong(length + 100);
+            }
+            try {
+                CorpusSegment.open(file);
+                fail("Expected IOException");
+            } catch (IOException ex) {
+                // Do nothing: this is ok
+            }
+
+            // Out of order offsets are just as corrupt.
+            CorpusSegment.write(file, 42, pages(10, "word"));
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.seek(length - 16 - 8);
+                raf.writeLong(16);
+            }
+            try {
+                CorpusSegment.open(file);
+                fail("Expected IOException");
+            } catch (IOException ex) {
+                // Do nothing: this is ok
+            }
+        } finally {
+            TestBinaryPageCache.deleteFolder(folder);
+        }
+    }
+
+    @Test(timeout=5 * SECOND)
+    public void testLoaderReadsAndRewritesSegment() throws IOException {
+        File folder = Files.createTempDirectory("corpus").toFile();
+        File segmentFile = new File(folder.getPath() + ".segment");
+        try {
+            IList<Webpage> pages = pages(20, "old");
+            IList<URI> uris = new DoubleLinkedList<>();
+            for (int i = 0; i < pages.size(); i++) {
+                File html = new File(folder, "page" + i + ".html");
+                BinaryPageCache.write(pages.get(i), new File(Webpage.getCacheURI(html.toURI())));
+                uris.add(html.toURI());
+            }
+            assertPagesMatch(pages, WebpageLoader.loadAll(uris, segmentFile, 1));
+            assertTrue(segmentFile.exists());
+
+            // Change every page's cache: with the same fingerprint, the pages
+            // still come from the segment...
+            IList<Webpage> changed = pages(20, "new");
+            for (int i = 0; i < changed.size(); i++) {
+                File html = new File(folder, "page" + i + ".html");
+                BinaryPageCache.write(changed.get(i), new File(Webpage.getCacheURI(html.toURI())));
+            }
+            assertPagesMatch(pages, WebpageLoader.loadAll(uris, segmentFile, 1));
+
+            // ...but a new fingerprint reloads them, and rewrites the segment.
+            assertPagesMatch(changed, WebpageLoader.loadAll(uris, segmentFile, 2));
+            assertEquals(2, CorpusSegment.open(segmentFile).getFingerprint());
+
+            // A segment for another number of pages is not used either.
+            uris.delete(uris.size() - 1);
+            changed.delete(changed.size() - 1);
+            assertPagesMatch(changed, WebpageLoader.loadAll(uris, segmentFile, 2));
+            assertEquals(19, CorpusSegment.open(segmentFile).size());
+        } finally {
+            TestBinaryPageCache.deleteFolder(folder);
+            segmentFile.delete();
+        }
+    }
+}
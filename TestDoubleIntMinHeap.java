@@ -0,0 +1,130 @@
+package datastructures;
+
+import datastructures.concrete.DoubleIntMinHeap;
+import misc.BaseTest;
+import misc.exceptions.EmptyContainerException;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * See spec for details on what kinds of tests this class should include.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class TestDoubleIntMinHeap extends BaseTest {
+    @Test(timeout=SECOND)
+    public void testEmptyException() {
+        DoubleIntMinHeap heap = new DoubleIntMinHeap(5);
+        try {
+            heap.removeMin();
+            fail("Expected EmptyContainerException");
+        } catch (EmptyContainerException ex) {
+            // Do nothing: this is ok
+        }
+        try {
+            heap.peekMinScore();
+            fail("Expected EmptyContainerException");
+        } catch (EmptyContainerException ex) {
+            // Do nothing: this is ok
+        }
+        try {
+            heap.replaceMin(1.0, 1);
+            fail("Expected EmptyContainerException");
+        } catch (EmptyContainerException ex) {
+            // Do nothing: this is ok
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testFullException() {
+        DoubleIntMinHeap heap = new DoubleIntMinHeap(2);
+        heap.add(1.0, 1);
+        heap.add(2.0, 2);
+        try {
+            heap.add(3.0, 3);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException ex) {
+            // Do nothing: this is ok
+        }
+        assertEquals(2, heap.size());
+    }
+
+    @Test(timeout=SECOND)
+    public void testAddRemoveMinSorted() {
+        double[] scores = {3.0, 0.5, 9.0, -5.0, 7.0, 4.0, 2.0, -6.0, 5.0, 8.0};
+        DoubleIntMinHeap heap = new DoubleIntMinHeap(scores.length);
+        for (int i = 0; i < scores.length; i++) {
+            heap.add(scores[i], i);
+        }
+        double[] sorted = Arrays.copyOf(scores, scores.length);
+        Arrays.sort(sorted);
+        for (double expected : sorted) {
+            assertEquals(expected, heap.peekMinScore(), 0.0);
+            int id = heap.removeMin();
+            assertEquals(expected, scores[id], 0.0);
+        }
+        assertTrue(heap.isEmpty());
+    }
+
+    @Test(timeout=SECOND)
+    public void testTiesPreferSmallerId() {
+        DoubleIntMinHeap heap = new DoubleIntMinHeap(3);
+        heap.add(1.0, 4);
+        heap.add(1.0, 7);
+        heap.add(1.0, 2);
+        assertFalse(heap.offer(1.0, 9));
+        assertTrue(heap.offer(1.0, 0));
+        assertEquals(4, heap.removeMin());
+        assertEquals(2, heap.removeMin());
+        assertEquals(0, heap.removeMin());
+    }
+
+    @Test(timeout=SECOND)
+    public void testTiesUseComparator() {
+        // Prefer the larger id instead.
+        DoubleIntMinHeap heap = new DoubleIntMinHeap(3, (a, b) -> Integer.compare(b, a));
+        heap.add(1.0, 4);
+        heap.add(1.0, 7);
+        heap.add(1.0, 2);
+        assertFalse(heap.offer(1.0, 0));
+        assertTrue(heap.offer(1.0, 9));
+        assertTrue(heap.offer(2.0, 1));
+        assertEquals(7, heap.removeMin());
+        assertEquals(9, heap.removeMin());
+        assertEquals(1, heap.removeMin());
+    }
+
+    @Test(timeout=SECOND)
+    public void testOfferKeepsLargest() {
+        Random rand = new Random(373);
+        double[] scores = new double[1000];
+        DoubleIntMinHeap heap = new DoubleIntMinHeap(10);
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = rand.nextDouble();
+            heap.offer(scores[i], i);
+        }
+        double[] sorted = Arrays.copyOf(scores, scores.length);
+        Arrays.sort(sorted);
+        for (int i = scores.length - 10; i < scores.length; i++) {
+            assertEquals(sorted[i], scores[heap.removeMin()], 0.0);
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testClearAndReuse() {
+        DoubleIntMinHeap heap = new DoubleIntMinHeap(4);
+        heap.add(2.0, 1);
+        heap.add(1.0, 2);
+        heap.clear();
+        assertEquals(0, heap.size());
+        heap.add(5.0, 3);
+        assertEquals(3, heap.peekMinId());
+    }
+}
@@ -0,0 +1,184 @@
+package search.analyzers;
+
+import datastructures.concrete.ChainedHashSet;
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.interfaces.IList;
+import datastructures.interfaces.ISet;
+import misc.BaseTest;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import search.models.Webpage;
+
+import java.net.URI;
+import java.util.Random;
+
+import static org.junit.Assert.fail;
+
+/**
+ * See spec for details on what kinds of tests this class should include.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class TestPageRankAnalyzer extends BaseTest {
+    private static final double DECAY = 0.85;
+
+    protected static URI uri(int i) {
+        return URI.create("http://page" + i + ".com");
+    }
+
+    protected static Webpage page(int i, int... links) {
+        IList<URI> uris = new DoubleLinkedList<>();
+        for (int link : links) {
+            uris.add(uri(link));
+        }
+        IList<String> words = new DoubleLinkedList<>();
+        words.add("page");
+        return new Webpage(uri(i), uris, words, "Page " + i, "");
+    }
+
+    /**
+     * Returns a page linking to a few random pages out of 'count', or to none
+     * at all now and then.
+     */
+    protected static Webpage randomPage(Random rand, int i, int count) {
+        int[] links = new int[rand.nextInt(8) == 0 ? 0 : 1 + rand.nextInt(5)];
+        for (int j = 0; j < links.length; j++) {
+            // Skewed, so some pages are far more popular than others.
+            links[j] = (int) (count * Math.pow(rand.nextDouble(), 3));
+        }
+        return page(i, links);
+    }
+
+    protected static double sumOfRanks(PageRankAnalyzer analyzer, int count) {
+        double sum = 0.0;
+        for (int i = 0; i < count; i++) {
+            sum += analyzer.computePageRank(uri(i));
+        }
+        return sum;
+    }
+
+    @Test(timeout=SECOND)
+    public void testCycleRanksEqually() {
+        ISet<Webpage> pages = new ChainedHashSet<>();
+        pages.add(page(0, 1));
+        pages.add(page(1, 2));
+        pages.add(page(2, 0));
+        PageRankAnalyzer analyzer = new PageRankAnalyzer(pages, DECAY, 1e-12, 1000);
+        assertTrue(analyzer.hasConverged());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(1.0 / 3, analyzer.computePageRank(uri(i)), 1e-9);
+        }
+        assertEquals(0.0, analyzer.computePageRank(URI.create("http://unknown.com")), 0.0);
+    }
+
+    @Test(timeout=SECOND)
+    public void testPageWithoutLinksLinksEverywhere() {
+        ISet<Webpage> pages = new ChainedHashSet<>();
+        // Links to itself and to unknown pages don't count.
+        pages.add(page(0, 1, 0, 99));
+        pages.add(page(1));
+        PageRankAnalyzer analyzer = new PageRankAnalyzer(pages, DECAY, 1e-12, 1000);
+        assertEquals(1, analyzer.getLinkCount());
+        // r0 = (1 - d) / 2 + d * r1 / 2, and r0 + r1 = 1.
+        double r0 = 0.5 / (1 + DECAY / 2);
+        assertEquals(r0, analyzer.computePageRank(uri(0)), 1e-9);
+        assertEquals(1 - r0, analyzer.computePageRank(uri(1)), 1e-9);
+    }
+
+    @Test(timeout=10 * SECOND)
+    public void testRanksIdenticalForEveryParallelism() {
+        // More pages than one block, so iterations really are split up.
+        Random rand = new Random(21);
+        int count = 10000;
+        ISet<Webpage> pages = new ChainedHashSet<>();
+        for (int i = 0; i < count; i++) {
+            pages.add(randomPage(rand, i, count));
+        }
+        PageRankAnalyzer sequential = new PageRankAnalyzer(pages, DECAY, 1e-10, 100, 1);
+        assertEquals(1.0, sumOfRanks(sequential, count), 1e-9);
+        PageRankAnalyzer parallel = new PageRankAnalyzer(pages, DECAY, 1e-10, 100, 4);
+        assertEquals(sequential.getIterations(), parallel.getIterations());
+        for (int i = 0; i < count; i++) {
+            assertEquals(sequential.computePageRank(uri(i)), parallel.computePageRank(uri(i)), 0.0);
+        }
+    }
+
+    @Test(timeout=10 * SECOND)
+    public void testUpdateLinksStaysCloseToRecompute() {
+        Random rand = new Random(22);
+        int count = 2000;
+        double epsilon = 1e-10;
+        Webpage[] pages = new Webpage[count];
+        ISet<Webpage> initial = new ChainedHashSet<>();
+        for (int i = 0; i < count; i++) {
+            pages[i] = randomPage(rand, i, count);
+            initial.add(pages[i]);
+        }
+        PageRankAnalyzer analyzer = new PageRankAnalyzer(initial, DECAY, epsilon, 1000);
+        assertTrue(analyzer.hasConverged());
+
+        for (int round = 0; round < 5; round++) {
+            for (int update = 0; update < 40; update++) {
+                int i = rand.nextInt(count);
+                pages[i] = randomPage(rand, i, count);
+                analyzer.updateLinks(pages[i]);
+            }
+            // Every residual was pushed below epsilon, and so was the part
+            // shared by every page.
+            double maxResidual = analyzer.getMaxResidual();
+            assertTrue(maxResidual < 2 * epsilon);
+
+            ISet<Webpage> updated = new ChainedHashSet<>();
+            for (Webpage page : pages) {
+                updated.add(page);
+            }
+            PageRankAnalyzer fresh = new PageRankAnalyzer(updated, DECAY, 1e-15, 10000);
+            assertEquals(fresh.getLinkCount(), analyzer.getLinkCount());
+            double bound = maxResidual * count / (1 - DECAY);
+            for (int i = 0; i < count; i++) {
+                assertEquals(fresh.computePageRank(uri(i)), analyzer.computePageRank(uri(i)), bound);
+            }
+            assertEquals(1.0, sumOfRanks(analyzer, count), bound);
+        }
+        assertTrue(analyzer.getPushes() > 0);
+    }
+
+    @Test(timeout=SECOND)
+    public void testBlendUsesUpdatedRanks() {
+        ISet<Webpage> pages = new ChainedHashSet<>();
+        pages.add(page(0, 2));
+        pages.add(page(1, 2));
+        pages.add(page(2, 0));
+        PageRankAnalyzer analyzer = new PageRankAnalyzer(pages, DECAY, 1e-12, 1000);
+        IList<SearchResult> results = new DoubleLinkedList<>();
+        results.add(new SearchResult(uri(0), 0.5));
+        results.add(new SearchResult(uri(1), 0.5));
+        results.add(new SearchResult(uri(2), 0.5));
+        // Ordered purely by rank, the most linked-to page comes first, with
+        // a blended score of 1.
+        IList<SearchResult> blended = analyzer.blend(results, 3, 1.0);
+        assertEquals(uri(2), blended.get(0).getUri());
+        assertEquals(1.0, blended.get(0).getScore(), 1e-12);
+
+        // Once every page links to page 1 instead, it takes the lead.
+        analyzer.updateLinks(page(0, 1));
+        analyzer.updateLinks(page(2, 1));
+        blended = analyzer.blend(results, 3, 1.0);
+        assertEquals(uri(1), blended.get(0).getUri());
+        assertEquals(1.0, blended.get(0).getScore(), 1e-12);
+    }
+
+    @Test(timeout=SECOND)
+    public void testUpdateUnknownPageThrowsException() {
+        ISet<Webpage> pages = new ChainedHashSet<>();
+        pages.add(page(0, 1));
+        pages.add(page(1, 0));
+        PageRankAnalyzer analyzer = new PageRankAnalyzer(pages, DECAY, 1e-12, 1000);
+        try {
+            analyzer.updateLinks(page(5, 0));
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+            // Do nothing: this is ok
+        }
+    }
+}
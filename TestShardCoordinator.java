@@ -0,0 +1,121 @@
+package search.cluster;
+
+import datastructures.concrete.ChainedHashSet;
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.interfaces.IList;
+import datastructures.interfaces.ISet;
+import misc.BaseTest;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import search.analyzers.SearchResult;
+import search.analyzers.TfIdfAnalyzer;
+import search.models.Webpage;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.Random;
+
+import static org.junit.Assert.assertFalse;
+
+/**
+ * See spec for details on what kinds of tests this class should include.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class TestShardCoordinator extends BaseTest {
+    private static final int SHARDS = 3;
+
+    protected static IList<String> words(String... words) {
+        IList<String> output = new DoubleLinkedList<>();
+        for (String word : words) {
+            output.add(word);
+        }
+        return output;
+    }
+
+    protected static IList<Webpage> randomPages(int count, int vocabulary) {
+        Random rand = new Random(373);
+        IList<Webpage> pages = new DoubleLinkedList<>();
+        for (int i = 0; i < count; i++) {
+            IList<String> words = new DoubleLinkedList<>();
+            int length = 5 + rand.nextInt(40);
+            for (int j = 0; j < length; j++) {
+                // Skewed, so some words are common and others rare.
+                words.add("w" + (int) (vocabulary * Math.pow(rand.nextDouble(), 3)));
+            }
+            URI uri = URI.create("http://page" + i + ".com");
+            pages.add(new Webpage(uri, new DoubleLinkedList<>(), words, uri.toString(), ""));
+        }
+        return pages;
+    }
+
+    @Test(timeout=10 * SECOND)
+    public void testMatchesSingleIndex() throws IOException {
+        IList<Webpage> pages = randomPages(300, 60);
+        ISet<Webpage> all = new ChainedHashSet<>();
+        IList<ISet<Webpage>> shardPages = new DoubleLinkedList<>();
+        for (int i = 0; i < SHARDS; i++) {
+            shardPages.add(new ChainedHashSet<>());
+        }
+        int i = 0;
+        for (Webpage page : pages) {
+            all.add(page);
+            // Uneven shards, so their local statistics differ noticeably.
+            shardPages.get(i % 6 == 0 ? 0 : i % 2 + 1).add(page);
+            i++;
+        }
+        TfIdfAnalyzer single = new TfIdfAnalyzer(all);
+
+        IList<ShardServer> servers = new DoubleLinkedList<>();
+        IList<InetSocketAddress> addresses = new DoubleLinkedList<>();
+        try {
+            for (ISet<Webpage> shard : shardPages) {
+                ShardServer server = new ShardServer(new TfIdfAnalyzer(shard), 0);
+                servers.add(server);
+                addresses.add(new InetSocketAddress("localhost", server.getPort()));
+            }
+            try (ShardCoordinator coordinator = new ShardCoordinator(addresses, 5000)) {
+                IList<IList<String>> queries = new DoubleLinkedList<>();
+                queries.add(words("w0"));
+                queries.add(words("w1", "w7"));
+                queries.add(words("w3", "w3", "w20", "w45"));
+                queries.add(words("w50", "w59", "missing"));
+                for (IList<String> query : queries) {
+                    IList<SearchResult> expected = single.search(query, 10);
+                    ShardCoordinator.Results actual = coordinator.search(query, 10);
+                    assertFalse(actual.isPartial());
+                    assertEquals(expected.size(), actual.getResults().size());
+                    for (int j = 0; j < expected.size(); j++) {
+                        SearchResult result = actual.getResults().get(j);
+                        assertEquals(expected.get(j).getUri(), result.getUri());
+                        // Shards add up the same terms in another order.
+                        assertEquals(expected.get(j).getScore(), result.getScore(), 1e-9);
+                    }
+                }
+            }
+        } finally {
+            for (ShardServer server : servers) {
+                server.close();
+            }
+        }
+    }
+
+    @Test(timeout=10 * SECOND)
+    public void testHugeKIsCapped() throws IOException {
+        IList<Webpage> pages = randomPages(20, 10);
+        ISet<Webpage> all = new ChainedHashSet<>();
+        for (Webpage page : pages) {
+            all.add(page);
+        }
+        try (ShardServer server = new ShardServer(new TfIdfAnalyzer(all), 0)) {
+            IList<InetSocketAddress> addresses = new DoubleLinkedList<>();
+            addresses.add(new InetSocketAddress("localhost", server.getPort()));
+            try (ShardCoordinator coordinator = new ShardCoordinator(addresses, 5000)) {
+                ShardCoordinator.Results results = coordinator.search(words("w0"), Integer.MAX_VALUE);
+                assertFalse(results.isPartial());
+                assertEquals(new TfIdfAnalyzer(all).search(words("w0"), 20).size(), results.getResults().size());
+            }
+        }
+    }
+}
@@ -0,0 +1,486 @@
+package search.analyzers;
+
+import datastructures.concrete.ChainedHashSet;
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.interfaces.IList;
+import datastructures.interfaces.ISet;
+import misc.BaseTest;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import search.models.Webpage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * See spec for details on what kinds of tests this class should include.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class TestTfIdfAnalyzer extends BaseTest {
+    protected static IList<String> words(String... words) {
+        IList<String> output = new DoubleLinkedList<>();
+        for (String word : words) {
+            output.add(word);
+        }
+        return output;
+    }
+
+    protected static Webpage page(String uri, String... words) {
+        return new Webpage(URI.create(uri), new DoubleLinkedList<>(), words(words), uri, "");
+    }
+
+    protected static ISet<Webpage> pages() {
+        ISet<Webpage> pages = new ChainedHashSet<>();
+        pages.add(page("http://a.com", "the", "cat", "sat"));
+        pages.add(page("http://b.com", "the", "dog", "sat", "down"));
+        pages.add(page("http://c.com", "a", "cat", "and", "a", "dog"));
+        pages.add(page("http://d.com", "the", "end"));
+        return pages;
+    }
+
+    /**
+     * Returns 'count' pages of random lengths, whose words are drawn from
+     * 'vocabulary' words with a skewed distribution, so some are common and
+     * others rare.
+     */
+    protected static ISet<Webpage> randomPages(Random rand, int count, int vocabulary) {
+        ISet<Webpage> pages = new ChainedHashSet<>();
+        for (int i = 0; i < count; i++) {
+            pages.add(randomPage(rand, "http://page" + i + ".com", vocabulary));
+        }
+        return pages;
+    }
+
+    protected static Webpage randomPage(Random rand, String uri, int vocabulary) {
+        IList<String> words = new DoubleLinkedList<>();
+        int length = 1 + rand.nextInt(40);
+        for (int i = 0; i < length; i++) {
+            words.add(randomWord(rand, vocabulary));
+        }
+        return new Webpage(URI.create(uri), new DoubleLinkedList<>(), words, uri, "");
+    }
+
+    /**
+     * Returns a random page, which always contains a word no other page does.
+     */
+    protected static Webpage markedPage(Random rand, int i) {
+        String uri = "http://page" + i + ".com";
+        IList<String> words = randomPage(rand, uri, 120).getWords();
+        words.add("page" + i);
+        return new Webpage(URI.create(uri), new DoubleLinkedList<>(), words, uri, "");
+    }
+
+    protected static IList<String> randomQuery(Random rand, int vocabulary) {
+        IList<String> query = new DoubleLinkedList<>();
+        int length = 1 + rand.nextInt(4);
+        for (int i = 0; i < length; i++) {
+            query.add(randomWord(rand, vocabulary));
+        }
+        return query;
+    }
+
+    private static String randomWord(Random rand, int vocabulary) {
+        return "w" + (int) (vocabulary * Math.pow(rand.nextDouble(), 2));
+    }
+
+    protected static void assertResultsMatch(IList<SearchResult> expected, IList<SearchResult> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getUri(), actual.get(i).getUri());
+            assertEquals(expected.get(i).getScore(), actual.get(i).getScore(), 0.0);
+        }
+    }
+
+    /**
+     * Checks that the given analyzer scores every query like a new analyzer
+     * built over the pages in 'live' (skipping nulls) would.
+     */
+    protected static void assertMatchesFreshIndex(Random rand, TfIdfAnalyzer analyzer, Webpage[] live) {
+        ISet<Webpage> pages = new ChainedHashSet<>();
+        for (Webpage page : live) {
+            if (page != null) {
+                pages.add(page);
+            }
+        }
+        TfIdfAnalyzer fresh = new TfIdfAnalyzer(pages);
+        assertEquals(pages.size(), analyzer.getDocumentTfIdfVectors().size());
+        for (int i = 0; i < 20; i++) {
+            IList<String> query = randomQuery(rand, 120);
+            for (Webpage page : pages) {
+                assertEquals(fresh.computeRelevance(query, page.getUri()),
+                        analyzer.computeRelevance(query, page.getUri()), 1e-12);
+            }
+            IList<SearchResult> expected = fresh.search(query, 10);
+            IList<SearchResult> actual = analyzer.search(query, 10);
+            assertEquals(expected.size(), actual.size());
+            for (int j = 0; j < expected.size(); j++) {
+                assertEquals(expected.get(j).getUri(), actual.get(j).getUri());
+                assertEquals(expected.get(j).getScore(), actual.get(j).getScore(), 1e-12);
+            }
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testSearchWithHugeK() {
+        TfIdfAnalyzer analyzer = new TfIdfAnalyzer(pages());
+        IList<String> query = words("cat", "dog");
+        IList<SearchResult> expected = analyzer.search(query, 10);
+        assertEquals(3, expected.size());
+        assertResultsMatch(expected, analyzer.search(query, Integer.MAX_VALUE));
+
+        IList<SearchResult> all = analyzer.searchAll(query, 10);
+        assertEquals(1, all.size());
+        assertResultsMatch(all, analyzer.searchAll(query, Integer.MAX_VALUE));
+
+        analyzer.setDynamicPruning(false);
+        assertResultsMatch(expected, analyzer.search(query, Integer.MAX_VALUE));
+        analyzer.setSearchShards(2);
+        assertResultsMatch(expected, analyzer.search(query, Integer.MAX_VALUE));
+    }
+
+    @Test(timeout=SECOND)
+    public void testTiesOrderedByUri() {
+        ISet<Webpage> pages = new ChainedHashSet<>();
+        pages.add(page("http://z.com", "same", "words"));
+        pages.add(page("http://m.com", "same", "words"));
+        pages.add(page("http://a.com", "same", "words"));
+        pages.add(page("http://other.com", "other"));
+        TfIdfAnalyzer analyzer = new TfIdfAnalyzer(pages);
+        IList<SearchResult> results = analyzer.search(words("same"), 2);
+        assertEquals(2, results.size());
+        assertEquals(URI.create("http://a.com"), results.get(0).getUri());
+        assertEquals(URI.create("http://m.com"), results.get(1).getUri());
+    }
+
+    @Test(timeout=10 * SECOND)
+    public void testSaveThenLoadGivesSameResults() throws IOException {
+        Random rand = new Random(16);
+        TfIdfAnalyzer analyzer = new TfIdfAnalyzer(randomPages(rand, 300, 60));
+        File file = File.createTempFile("index", ".index");
+        try {
+            analyzer.save(file, 42);
+            TfIdfAnalyzer loaded = TfIdfAnalyzer.load(file, 42);
+            assertNotNull(loaded);
+            assertEquals(analyzer.getDocumentCount(), loaded.getDocumentCount());
+            for (int i = 0; i < 100; i++) {
+                IList<String> query = randomQuery(rand, 60);
+                assertResultsMatch(analyzer.search(query, 10), loaded.search(query, 10));
+                assertResultsMatch(analyzer.searchAll(query, 10), loaded.searchAll(query, 10));
+            }
+            // An index of another corpus is not loaded.
+            assertNull(TfIdfAnalyzer.load(file, 43));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test(timeout=10 * SECOND)
+    public void testChangedCorpusForcesRebuild() throws IOException {
+        File corpus = Files.createTempDirectory("corpus").toFile();
+        File page = new File(corpus, "page.html");
+        File index = new File(corpus.getPath() + ".index");
+        int[] builds = {0};
+        Supplier<ISet<Webpage>> webpages = () -> {
+            builds[0]++;
+            return pages();
+        };
+        try {
+            Files.write(page.toPath(), "one".getBytes());
+            IList<SearchResult> expected = TfIdfAnalyzer.loadOrBuild(index, corpus, webpages).search(words("cat"), 10);
+            assertEquals(1, builds[0]);
+            assertResultsMatch(expected, TfIdfAnalyzer.loadOrBuild(index, corpus, webpages).search(words("cat"), 10));
+            assertEquals(1, builds[0]);
+
+            Files.write(page.toPath(), "one two".getBytes());
+            TfIdfAnalyzer.loadOrBuild(index, corpus, webpages);
+            assertEquals(2, builds[0]);
+
+            // A damaged index is rebuilt too.
+            try (RandomAccessFile raf = new RandomAccessFile(index, "rw")) {
+                raf.setLength(raf.length() / 2);
+            }
+            assertResultsMatch(expected, TfIdfAnalyzer.loadOrBuild(index, corpus, webpages).search(words("cat"), 10));
+            assertEquals(3, builds[0]);
+        } finally {
+            page.delete();
+            corpus.delete();
+            index.delete();
+        }
+    }
+
+    @Test(timeout=20 * SECOND)
+    public void testDamagedIndexFailsToLoad() throws IOException {
+        Random rand = new Random(373);
+        TfIdfAnalyzer analyzer = new TfIdfAnalyzer(randomPages(rand, 200, 50));
+        File file = File.createTempFile("index", ".index");
+        try {
+            analyzer.save(file, 42);
+            byte[] original = Files.readAllBytes(file.toPath());
+            // Flip one bit after the header at a time: the index must either
+            // fail to load, or answer searches without failing.
+            for (int i = 0; i < 500; i++) {
+                byte[] damaged = original.clone();
+                damaged[16 + rand.nextInt(damaged.length - 16)] ^= (byte) (1 << rand.nextInt(8));
+                Files.write(file.toPath(), damaged);
+                TfIdfAnalyzer loaded;
+                try {
+                    loaded = TfIdfAnalyzer.load(file, 42);
+                } catch (IOException ex) {
+                    continue;
+                }
+                for (int j = 0; j < 10; j++) {
+                    IList<String> query = randomQuery(rand, 50);
+                    loaded.search(query, 5);
+                    loaded.searchAll(query, 5);
+                }
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test(timeout=10 * SECOND)
+    public void testPruningMatchesExhaustiveSearch() {
+        Random rand = new Random(12);
+        ISet<Webpage> pages = randomPages(rand, 1000, 200);
+        // Copies of the same page tie, and must still come back in URI order.
+        for (int i = 0; i < 20; i++) {
+            pages.add(page("http://copy" + (19 - i) + ".com", "w1", "w3", "w3", "w50"));
+        }
+        TfIdfAnalyzer analyzer = new TfIdfAnalyzer(pages);
+        for (int i = 0; i < 300; i++) {
+            IList<String> query = randomQuery(rand, 200);
+            if (i % 10 == 0) {
+                query.add("w3");
+            }
+            // Sometimes ask for more results than there are matching pages.
+            int k = i % 4 == 0 ? 1 + rand.nextInt(2000) : 1 + rand.nextInt(20);
+            analyzer.setDynamicPruning(false);
+            IList<SearchResult> expected = analyzer.search(query, k);
+            analyzer.setDynamicPruning(true);
+            assertResultsMatch(expected, analyzer.search(query, k));
+        }
+        assertTrue(analyzer.getDocumentsSkipped() > 0);
+    }
+
+    @Test(timeout=10 * SECOND)
+    public void testIndexIdenticalForEveryParallelism() throws IOException {
+        Random rand = new Random(10);
+        ISet<Webpage> pages = randomPages(rand, 2000, 300);
+        File file = File.createTempFile("index", ".index");
+        try {
+            // The saved index holds every norm and upper bound as raw doubles,
+            // so equal files mean the index was built bit for bit the same.
+            TfIdfAnalyzer sequential = new TfIdfAnalyzer(pages, 1);
+            sequential.save(file, 42);
+            byte[] expected = Files.readAllBytes(file.toPath());
+            for (int parallelism : new int[] {2, 3, 8}) {
+                TfIdfAnalyzer parallel = new TfIdfAnalyzer(pages, parallelism);
+                parallel.save(file, 42);
+                assertArrayEquals(expected, Files.readAllBytes(file.toPath()));
+                for (int i = 0; i < 20; i++) {
+                    IList<String> query = randomQuery(rand, 300);
+                    assertResultsMatch(sequential.search(query, 10), parallel.search(query, 10));
+                }
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test(timeout=20 * SECOND)
+    public void testIncrementalUpdatesMatchFreshIndex() {
+        Random rand = new Random(14);
+        Webpage[] live = new Webpage[300];
+        ISet<Webpage> initial = new ChainedHashSet<>();
+        for (int i = 0; i < 150; i++) {
+            live[i] = randomPage(rand, "http://page" + i + ".com", 100);
+            initial.add(live[i]);
+        }
+        // One analyzer keeps its norms exact after every change, the other
+        // only once refreshNorms() is called.
+        TfIdfAnalyzer exact = new TfIdfAnalyzer(initial);
+        exact.setNormRefreshThreshold(0);
+        TfIdfAnalyzer lazy = new TfIdfAnalyzer(initial);
+
+        for (int step = 0; step < 300; step++) {
+            int i = rand.nextInt(live.length);
+            String uri = "http://page" + i + ".com";
+            if (live[i] == null) {
+                live[i] = randomPage(rand, uri, 100);
+                exact.addPage(live[i]);
+                lazy.addPage(live[i]);
+            } else if (rand.nextBoolean()) {
+                exact.removePage(URI.create(uri));
+                lazy.removePage(URI.create(uri));
+                live[i] = null;
+            } else {
+                // A larger vocabulary brings in words the index has not seen.
+                live[i] = randomPage(rand, uri, 120);
+                exact.updatePage(live[i]);
+                lazy.updatePage(live[i]);
+            }
+            if (step % 50 == 49) {
+                assertMatchesFreshIndex(rand, exact, live);
+                lazy.refreshNorms();
+                assertMatchesFreshIndex(rand, lazy, live);
+            }
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testPhraseRanksAboveScatteredWords() {
+        ISet<Webpage> pages = new ChainedHashSet<>();
+        // The same words, so equally relevant; only z.com has them as a phrase.
+        pages.add(page("http://a.com", "new", "pizza", "place", "york"));
+        pages.add(page("http://z.com", "pizza", "new", "york", "place"));
+        pages.add(page("http://other.com", "other", "words"));
+        TfIdfAnalyzer analyzer = new TfIdfAnalyzer(pages, 1, true);
+        IList<String> query = words("new", "york");
+
+        IList<SearchResult> plain = analyzer.search(query, 10);
+        assertEquals(URI.create("http://a.com"), plain.get(0).getUri());
+        assertEquals(plain.get(0).getScore(), plain.get(1).getScore(), 0.0);
+
+        IList<SearchResult> boosted = analyzer.searchWithProximity(query, 10, 1.0);
+        assertEquals(2, boosted.size());
+        assertEquals(URI.create("http://z.com"), boosted.get(0).getUri());
+        assertEquals(2 * plain.get(0).getScore(), boosted.get(0).getScore(), 0.0);
+        assertEquals(URI.create("http://a.com"), boosted.get(1).getUri());
+        assertTrue(boosted.get(1).getScore() < boosted.get(0).getScore());
+    }
+
+    @Test(timeout=10 * SECOND)
+    public void testPositionsSurviveCompaction() {
+        Random rand = new Random(23);
+        Webpage[] live = new Webpage[400];
+        ISet<Webpage> initial = new ChainedHashSet<>();
+        for (int i = 0; i < 300; i++) {
+            live[i] = randomPage(rand, "http://page" + i + ".com", 20);
+            initial.add(live[i]);
+        }
+        TfIdfAnalyzer analyzer = new TfIdfAnalyzer(initial, 1, true);
+        long bytes = analyzer.getPositionalIndexBytes();
+        // Removing a third of the pages compacts the positional postings...
+        for (int i = 0; i < 300; i += 3) {
+            analyzer.removePage(live[i].getUri());
+            live[i] = null;
+        }
+        assertTrue(analyzer.getPositionalIndexBytes() < bytes);
+        // ...which must keep every surviving page's positions, and still take
+        // new pages after it.
+        for (int i = 300; i < live.length; i++) {
+            live[i] = randomPage(rand, "http://page" + i + ".com", 20);
+            analyzer.addPage(live[i]);
+        }
+        analyzer.refreshNorms();
+
+        ISet<Webpage> pages = new ChainedHashSet<>();
+        for (Webpage page : live) {
+            if (page != null) {
+                pages.add(page);
+            }
+        }
+        TfIdfAnalyzer fresh = new TfIdfAnalyzer(pages, 1, true);
+        for (int i = 0; i < 100; i++) {
+            IList<String> query = randomQuery(rand, 20);
+            IList<SearchResult> expected = fresh.searchWithProximity(query, 10, 2.0);
+            IList<SearchResult> actual = analyzer.searchWithProximity(query, 10, 2.0);
+            assertEquals(expected.size(), actual.size());
+            for (int j = 0; j < expected.size(); j++) {
+                assertEquals(expected.get(j).getUri(), actual.get(j).getUri());
+                assertEquals(expected.get(j).getScore(), actual.get(j).getScore(), 1e-12);
+            }
+        }
+    }
+
+    @Test(timeout=10 * SECOND)
+    public void testUpdatedPageVisibleUnderSnapshotIsolation() throws InterruptedException {
+        TfIdfAnalyzer analyzer = new TfIdfAnalyzer(pages());
+        analyzer.setSnapshotIsolation(true);
+        // Never compact away the postings of removed pages, which queries
+        // prepared before the removal would otherwise stop finding.
+        analyzer.setNormRefreshThreshold(Double.MAX_VALUE);
+        URI cat = URI.create("http://a.com");
+        PreparedQuery before = analyzer.prepare(words("cat"));
+        double relevance = analyzer.computeRelevance(before, cat);
+        IList<SearchResult> expected = analyzer.search(before, 10);
+
+        Webpage updated = page("http://a.com", "the", "cat", "sat", "on", "a", "hat");
+        analyzer.updatePage(updated);
+        // Whether or not the next snapshot was published yet, the page is
+        // still found, in one version or the other...
+        IList<SearchResult> results = analyzer.search(words("cat"), 10);
+        assertEquals(2, results.size());
+        assertTrue(results.get(0).getUri().equals(cat) || results.get(1).getUri().equals(cat));
+        // ...and a query prepared before the update still sees the old one.
+        assertEquals(relevance, analyzer.computeRelevance(before, cat), 0.0);
+        assertResultsMatch(expected, analyzer.search(before, 10));
+
+        analyzer.awaitSnapshot();
+        ISet<Webpage> pages = pages();
+        pages.remove(page("http://a.com"));
+        pages.add(updated);
+        assertEquals(new TfIdfAnalyzer(pages).computeRelevance(words("cat"), cat),
+                analyzer.computeRelevance(words("cat"), cat), 1e-12);
+
+        // Removed pages stay visible to older snapshots too.
+        before = analyzer.prepare(words("cat"));
+        expected = analyzer.search(before, 10);
+        analyzer.removePage(cat);
+        assertResultsMatch(expected, analyzer.search(before, 10));
+        analyzer.awaitSnapshot();
+        assertEquals(1, analyzer.search(words("cat"), 10).size());
+        assertEquals(0.0, analyzer.computeRelevance(words("cat"), cat), 0.0);
+    }
+
+    @Test(timeout=20 * SECOND)
+    public void testSnapshotUpdatesMatchFreshIndex() throws InterruptedException {
+        Random rand = new Random(15);
+        Webpage[] live = new Webpage[300];
+        // Whether the page has been indexed ever since the last snapshot we
+        // waited for, so every newer snapshot holds some version of it.
+        boolean[] published = new boolean[live.length];
+        ISet<Webpage> initial = new ChainedHashSet<>();
+        for (int i = 0; i < 200; i++) {
+            live[i] = markedPage(rand, i);
+            published[i] = true;
+            initial.add(live[i]);
+        }
+        TfIdfAnalyzer analyzer = new TfIdfAnalyzer(initial);
+        analyzer.setSnapshotIsolation(true);
+        for (int step = 0; step < 200; step++) {
+            int i = rand.nextInt(live.length);
+            if (live[i] == null) {
+                live[i] = markedPage(rand, i);
+                analyzer.addPage(live[i]);
+            } else if (rand.nextInt(4) == 0) {
+                analyzer.removePage(live[i].getUri());
+                live[i] = null;
+                published[i] = false;
+            } else {
+                live[i] = markedPage(rand, i);
+                analyzer.updatePage(live[i]);
+                if (published[i]) {
+                    // Every version contains the marker word.
+                    IList<SearchResult> results = analyzer.search(words("page" + i), 10);
+                    assertEquals(1, results.size());
+                    assertEquals(live[i].getUri(), results.get(0).getUri());
+                }
+            }
+            if (step % 50 == 49) {
+                analyzer.awaitSnapshot();
+                for (int j = 0; j < live.length; j++) {
+                    published[j] = live[j] != null;
+                }
+                assertMatchesFreshIndex(rand, analyzer, live);
+            }
+        }
+    }
+}
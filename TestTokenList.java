@@ -0,0 +1,225 @@
+package search.models;
+
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.interfaces.IList;
+import misc.BaseTest;
+import misc.exceptions.EmptyContainerException;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * See spec for details on what kinds of tests this class should include.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class TestTokenList extends BaseTest {
+    protected static TokenList list(String... words) {
+        TokenList list = new TokenList(new TokenDictionary(), 0);
+        for (String word : words) {
+            list.add(word);
+        }
+        return list;
+    }
+
+    protected static void assertListMatches(IList<String> expected, IList<String> actual) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.isEmpty(), actual.isEmpty());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i), actual.get(i));
+        }
+        Iterator<String> iterator = actual.iterator();
+        for (String word : expected) {
+            assertTrue(iterator.hasNext());
+            assertEquals(word, iterator.next());
+        }
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test(timeout=SECOND)
+    public void testAddGetAndRemove() {
+        TokenList list = list("a", "b", "a");
+        assertEquals(3, list.size());
+        assertEquals("a", list.get(0));
+        assertEquals("b", list.get(1));
+        assertEquals("a", list.get(2));
+        // Equal words share a token id.
+        assertEquals(list.getTokenId(0), list.getTokenId(2));
+        assertEquals("a", list.remove());
+        assertEquals("b", list.remove());
+        assertEquals("a", list.remove());
+        assertTrue(list.isEmpty());
+    }
+
+    @Test(timeout=SECOND)
+    public void testRemoveOnEmptyListThrowsException() {
+        TokenList list = list();
+        try {
+            list.remove();
+            fail("Expected EmptyContainerException");
+        } catch (EmptyContainerException ex) {
+            // Do nothing: this is ok
+        }
+        list.add("a");
+        list.remove();
+        try {
+            list.remove();
+            fail("Expected EmptyContainerException");
+        } catch (EmptyContainerException ex) {
+            // Do nothing: this is ok
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testIndexOutOfBoundsThrowsException() {
+        TokenList list = list("a", "b", "c");
+        for (int index : new int[] {-1, 3}) {
+            try {
+                list.get(index);
+                fail("Expected IndexOutOfBoundsException");
+            } catch (IndexOutOfBoundsException ex) {
+                // Do nothing: this is ok
+            }
+            try {
+                list.set(index, "d");
+                fail("Expected IndexOutOfBoundsException");
+            } catch (IndexOutOfBoundsException ex) {
+                // Do nothing: this is ok
+            }
+            try {
+                list.delete(index);
+                fail("Expected IndexOutOfBoundsException");
+            } catch (IndexOutOfBoundsException ex) {
+                // Do nothing: this is ok
+            }
+            try {
+                list.getTokenId(index);
+                fail("Expected IndexOutOfBoundsException");
+            } catch (IndexOutOfBoundsException ex) {
+                // Do nothing: this is ok
+            }
+        }
+        // Inserting right after the last word is allowed, but not past it.
+        list.insert(3, "d");
+        assertEquals("d", list.get(3));
+        try {
+            list.insert(5, "e");
+            fail("Expected IndexOutOfBoundsException");
+        } catch (IndexOutOfBoundsException ex) {
+            // Do nothing: this is ok
+        }
+        assertEquals(4, list.size());
+    }
+
+    @Test(timeout=SECOND)
+    public void testNullWordsThrowException() {
+        TokenList list = list("a");
+        try {
+            list.add(null);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+            // Do nothing: this is ok
+        }
+        try {
+            list.insert(0, null);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+            // Do nothing: this is ok
+        }
+        try {
+            list.set(0, null);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+            // Do nothing: this is ok
+        }
+        assertListMatches(list("a"), list);
+    }
+
+    @Test(timeout=SECOND)
+    public void testIteratorsEndWithException() {
+        TokenList list = list("a", "b");
+        Iterator<String> words = list.iterator();
+        words.next();
+        words.next();
+        try {
+            words.next();
+            fail("Expected NoSuchElementException");
+        } catch (NoSuchElementException ex) {
+            // Do nothing: this is ok
+        }
+        PrimitiveIterator.OfInt tokenIds = list.tokenIds();
+        assertEquals(list.getTokenId(0), tokenIds.nextInt());
+        assertEquals(list.getTokenId(1), tokenIds.nextInt());
+        try {
+            tokenIds.nextInt();
+            fail("Expected NoSuchElementException");
+        } catch (NoSuchElementException ex) {
+            // Do nothing: this is ok
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testIndexOfUnknownWord() {
+        TokenList list = list("a", "b");
+        assertEquals(1, list.indexOf("b"));
+        assertEquals(-1, list.indexOf("never seen"));
+        assertFalse(list.contains("never seen"));
+        // Looking a word up doesn't add it to the dictionary.
+        assertEquals(-1, list.getDictionary().getId("never seen"));
+    }
+
+    @Test(timeout=SECOND)
+    public void testSharedDictionary() {
+        TokenList first = TokenList.copyOf(list("shared", "word"));
+        IList<String> words = new DoubleLinkedList<>();
+        words.add(new String("shared"));
+        TokenList second = TokenList.copyOf(words);
+        assertSame(TokenDictionary.shared(), first.getDictionary());
+        assertEquals(first.getTokenId(0), second.getTokenId(0));
+        // Every list hands out the dictionary's single copy of a word.
+        assertSame(first.get(0), second.get(0));
+        // A list of the shared dictionary is not copied again.
+        assertSame(first, TokenList.copyOf(first));
+    }
+
+    @Test(timeout=5 * SECOND)
+    public void testRandomOperationsMatchLinkedList() {
+        Random rand = new Random(25);
+        TokenList list = list();
+        IList<String> expected = new DoubleLinkedList<>();
+        for (int step = 0; step < 20000; step++) {
+            String word = "w" + rand.nextInt(300);
+            int operation = rand.nextInt(6);
+            if (operation < 2) {
+                list.add(word);
+                expected.add(word);
+            } else if (operation == 2 && !expected.isEmpty()) {
+                int index = rand.nextInt(expected.size());
+                list.set(index, word);
+                expected.set(index, word);
+            } else if (operation == 3) {
+                int index = rand.nextInt(expected.size() + 1);
+                list.insert(index, word);
+                expected.insert(index, word);
+            } else if (operation == 4 && !expected.isEmpty()) {
+                int index = rand.nextInt(expected.size());
+                assertEquals(expected.delete(index), list.delete(index));
+            } else if (operation == 5 && !expected.isEmpty()) {
+                assertEquals(expected.remove(), list.remove());
+            }
+            assertEquals(expected.size(), list.size());
+            assertEquals(expected.indexOf(word), list.indexOf(word));
+            assertEquals(expected.contains(word), list.contains(word));
+        }
+        assertListMatches(expected, list);
+        list.trimToSize();
+        assertListMatches(expected, list);
+    }
+}
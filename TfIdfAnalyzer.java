@@ -1,143 +1,753 @@
 package search.analyzers;
 
-import datastructures.concrete.ChainedHashSet;
+import datastructures.concrete.DoubleIntMinHeap;
+import datastructures.concrete.DoubleLinkedList;
 import datastructures.concrete.dictionaries.ChainedHashDictionary;
-import datastructures.concrete.dictionaries.KVPair;
 import datastructures.interfaces.IDictionary;
 import datastructures.interfaces.IList;
 import datastructures.interfaces.ISet;
+import misc.TopKCollector;
 import search.models.Webpage;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.IntPredicate;
+import java.util.function.Supplier;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * This class is responsible for computing how "relevant" any given document is
  * to a given search query.
  *
  * See the spec for more details.
+ *
+ * Pages can be added, removed and updated after construction. The index stores
+ * raw term counts and document frequencies, and applies the current IDF scores
+ * when a query is prepared, so those updates never require a rebuild. The one
+ * thing that depends on every IDF score at once is each document's norm: those
+ * are cached, and only recomputed once enough pages have changed (see
+ * setNormRefreshThreshold). Until then, scores are computed against slightly
+ * outdated norms.
+ *
+ * Alternatively, with setSnapshotIsolation(true), queries are served from an
+ * immutable snapshot of the IDF scores and norms (see IdfSnapshot), and every
+ * change to the pages is followed by preparing the next snapshot on a
+ * background thread, recomputing the norms of only the documents whose IDF
+ * scores changed. Queries keep using the old snapshot, with exact scores,
+ * until the next one is published. Added, removed and updated pages all
+ * change what queries see at that point, so an updated page never goes
+ * missing in between.
+ *
+ * The whole index can be saved to a file and loaded back, which is much faster
+ * than loading every page and rebuilding it; see loadOrBuild(...).
+ *
+ * Results of repeated queries can be served from a QueryResultCache (see
+ * setResultCache), which is invalidated whenever the scores might change.
+ *
+ * All methods are safe to call from several threads at once. Updates briefly
+ * block queries.
  */
 public class TfIdfAnalyzer {
-    // This field must contain the IDF score for every single word in all
-    // the documents.
-    private IDictionary<String, Double> idfScores;
+    // Once the number of page changes since norms were last computed exceeds
+    // this fraction of the number of pages, the norms are recomputed.
+    public static final double DEFAULT_NORM_REFRESH_THRESHOLD = 0.05;
 
-    // This field must contain the TF-IDF vector for each webpage you were given
-    // in the constructor.
-    //
-    // We will use each webpage's page URI as a unique key.
-    private IDictionary<URI, IDictionary<String, Double>> documentTfIdfVectors;
+    // searchWithProximity(...) first re-ranks this many times k of the most
+    // relevant pages, and widens the pool by the same factor while pages
+    // outside it could still make the top k.
+    private static final int PROXIMITY_CANDIDATES = 4;
+
+    // Upper bounds are computed with different rounding than actual scores, so
+    // we inflate them slightly before comparing them to a real score.
+    private static final double UPPER_BOUND_SLACK = 1.0 + 1e-9;
+
+    // Every distinct word and every webpage is assigned a dense integer id at
+    // index time; all the per-word and per-document data below is stored in
+    // arrays indexed by those ids.
+    private TermDictionary terms;
+    private DocDictionary documents;
+
+    // How many (non-removed) documents contain each term, by term id. IDF
+    // scores are computed from these on demand; see idf(...).
+    private int[] documentFrequencies;
+
+    // The statistics of the whole corpus, if this analyzer only holds a shard
+    // of it (see setGlobalStatistics), or null. globalFrequencies holds their
+    // document frequency of every term id, or 0 for terms they don't know.
+    private CorpusStatistics globalStatistics;
+    private int[] globalFrequencies;
+
+    // The raw term counts of every document, by document id: its distinct term
+    // ids in increasing order, how many times each one occurs, and its total
+    // number of words. The term ids and counts of removed documents are null,
+    // except for those an IdfSnapshot may still see; see removeDocument(...).
+    private int[][] documentTermIds;
+    private int[][] documentTermCounts;
+    private int[] documentLengths;
+    private boolean[] removed;
+    private int removedSinceCompaction;
+
+    // The norm of every document's TF-IDF vector, computed with the IDF scores
+    // in effect when the norms were last refreshed or the document was added.
+    private double[] documentNorms;
+
+    // For every term id, the postings of the documents containing it, so a
+    // query only needs to visit documents sharing at least one of its words.
+    // Postings store raw term counts; see postingWeight(...). They may still
+    // refer to removed documents until the next norm refresh.
+    private CompressedPostingList[] invertedIndex;
+
+    // For every term id, the largest value of tf / norm over the term's
+    // postings. Multiplied by the term's IDF, this is an upper bound on how much
+    // the term can add to any document's cosine similarity, per unit of
+    // (normalized) query weight.
+    private double[] termUpperBounds;
+
+    private double normRefreshThreshold;
+    private int changesSinceNormRefresh;
+    private int documentsAtNormRefresh;
+
+    // The snapshot queries are served from, or null if snapshot isolation is
+    // off and queries use the live IDF scores and norms above. Only replaced
+    // while holding the write lock.
+    private volatile IdfSnapshot snapshot;
+    private boolean snapshotIsolation;
 
-    // Feel free to add extra fields and helper methods.
+    // Whether a background thread is publishing snapshots, and whether the
+    // pages changed since it last started building one. Guarded by
+    // snapshotMonitor.
+    private final Object snapshotMonitor = new Object();
+    private boolean snapshotRunning;
+    private boolean snapshotStale;
 
-    private IDictionary<URI, Double> documentNorms;
+    // Whether search(...) skips documents that provably can't make the top k.
+    private volatile boolean dynamicPruning;
+    private final AtomicLong documentsScored = new AtomicLong();
+    private final AtomicLong documentsSkipped = new AtomicLong();
+
+    // How many shards search(...) splits the documents into, and the threads
+    // scoring them. Guarded by the lock; the pool is null with a single shard.
+    private int searchShards = 1;
+    private ForkJoinPool searchPool;
+
+    // Where every term appears in every document, or null unless this
+    // analyzer was built with positions; see searchWithProximity(...).
+    private PositionalIndex positions;
+
+    // The cache in front of search(IList, int), or null if there is none.
+    private volatile QueryResultCache resultCache;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
 
     /**
      * @param webpages  A set of all webpages we have parsed. Must be non-null and
      *                  must not contain nulls.
      */
     public TfIdfAnalyzer(ISet<Webpage> webpages) {
-        // Implementation note: We have commented these method calls out so your
-        // search engine doesn't immediately crash when you try running it for the
-        // first time.
-        //
+        this(webpages, 1);
+    }
+
+    /**
+     * Like TfIdfAnalyzer(ISet), but builds the index using the given number of
+     * threads. The resulting index is identical for every parallelism level.
+     *
+     * @throws IllegalArgumentException  if parallelism < 1
+     */
+    public TfIdfAnalyzer(ISet<Webpage> webpages, int parallelism) {
+        this(webpages, parallelism, false);
+    }
+
+    /**
+     * Like TfIdfAnalyzer(ISet, int), but if 'positional' is true, also indexes
+     * where every word appears in every page, so searchWithProximity(...) can
+     * be used. This takes extra time and memory (see PositionalPostingList),
+     * and positions are not saved by save(...).
+     *
+     * @throws IllegalArgumentException  if parallelism < 1
+     */
+    public TfIdfAnalyzer(ISet<Webpage> webpages, int parallelism, boolean positional) {
+        IndexBuilder builder = new IndexBuilder(webpages, parallelism);
+        this.terms = builder.getTerms();
+        this.documents = builder.getDocuments();
+        this.documentFrequencies = builder.getDocumentFrequencies();
+        this.documentTermIds = builder.getDocTermIds();
+        this.documentTermCounts = builder.getDocTermCounts();
+        this.documentLengths = builder.getDocLengths();
+        this.removed = new boolean[documentLengths.length];
+        this.documentNorms = builder.getNorms();
+        this.invertedIndex = this.buildInvertedIndex();
+        this.termUpperBounds = this.computeTermUpperBounds();
+
+        this.normRefreshThreshold = DEFAULT_NORM_REFRESH_THRESHOLD;
+        this.documentsAtNormRefresh = documents.liveSize();
+        this.dynamicPruning = true;
+
+        if (positional) {
+            Webpage[] pages = new Webpage[documents.size()];
+            for (Webpage page : webpages) {
+                pages[documents.getId(page.getUri())] = page;
+            }
+            this.positions = new PositionalIndex();
+            for (int docId = 0; docId < pages.length; docId++) {
+                positions.addDocument(docId, IndexBuilder.termIds(pages[docId].getWords(), terms));
+            }
+            positions.trimToSize();
+        }
+    }
+
+    /**
+     * Restores an analyzer from an index file body, as written by save(...).
+     */
+    private TfIdfAnalyzer(ByteBuffer in) throws IOException {
+        this.terms = new TermDictionary();
+        int termCount = IndexFile.readVarInt(in);
+        for (int termId = 0; termId < termCount; termId++) {
+            terms.getOrAssignId(IndexFile.readString(in));
+        }
+        if (terms.size() != termCount) {
+            throw new IOException("Duplicate terms in index");
+        }
+
+        this.documents = new DocDictionary();
+        int documentCount = IndexFile.readVarInt(in);
+        // Every document takes at least a byte, which bounds the arrays a
+        // corrupt count could ask for.
+        if (documentCount < 0 || documentCount > in.remaining()) {
+            throw new IOException("Malformed document count in index");
+        }
+        this.documentTermIds = new int[documentCount][];
+        this.documentTermCounts = new int[documentCount][];
+        this.documentLengths = new int[documentCount];
+        this.removed = new boolean[documentCount];
+        this.documentNorms = new double[documentCount];
+        for (int docId = 0; docId < documentCount; docId++) {
+            if (in.get() == 0) {
+                documents.addRemoved();
+                removed[docId] = true;
+            } else {
+                try {
+                    documents.add(new URI(IndexFile.readString(in)));
+                } catch (URISyntaxException | IllegalArgumentException ex) {
+                    throw new IOException("Malformed document URI in index", ex);
+                }
+            }
+        }
+
+        this.documentFrequencies = new int[termCount];
+        for (int termId = 0; termId < termCount; termId++) {
+            documentFrequencies[termId] = IndexFile.readVarInt(in);
+        }
+        for (int docId = 0; docId < documentCount; docId++) {
+            if (removed[docId]) {
+                continue;
+            }
+            documentLengths[docId] = IndexFile.readVarInt(in);
+            int distinct = IndexFile.readVarInt(in);
+            if (distinct < 0 || distinct > in.remaining()) {
+                throw new IOException("Malformed term ids in index");
+            }
+            int[] termIds = new int[distinct];
+            int[] counts = new int[distinct];
+            int termId = -1;
+            for (int i = 0; i < distinct; i++) {
+                termId += IndexFile.readVarInt(in);
+                if (termId < 0 || termId >= termCount) {
+                    throw new IOException("Malformed term ids in index");
+                }
+                termIds[i] = termId;
+            }
+            for (int i = 0; i < distinct; i++) {
+                counts[i] = IndexFile.readVarInt(in);
+            }
+            documentTermIds[docId] = termIds;
+            documentTermCounts[docId] = counts;
+            documentNorms[docId] = in.getDouble();
+        }
+
+        this.invertedIndex = new CompressedPostingList[termCount];
+        this.termUpperBounds = new double[termCount];
+        for (int termId = 0; termId < termCount; termId++) {
+            invertedIndex[termId] = CompressedPostingList.read(in);
+            if (invertedIndex[termId].lastDocId() >= documentCount) {
+                throw new IOException("Posting of an unknown document in index");
+            }
+            termUpperBounds[termId] = in.getDouble();
+        }
+
+        this.removedSinceCompaction = IndexFile.readVarInt(in);
+        this.changesSinceNormRefresh = IndexFile.readVarInt(in);
+        this.documentsAtNormRefresh = IndexFile.readVarInt(in);
+        this.normRefreshThreshold = DEFAULT_NORM_REFRESH_THRESHOLD;
+        this.dynamicPruning = true;
+    }
+
+    /**
+     * Loads an analyzer from an index file written by save(...).
+     *
+     * The file is memory-mapped, and its postings are copied straight into
+     * the index without being re-encoded (only decoded once, to check them),
+     * so this is mostly limited by how fast the file can be read.
+     *
+     * @return  the analyzer, or null if the file was saved with a different
+     *          fingerprint or by an incompatible version of this class
+     * @throws IOException  if the file can't be read or is corrupt
+     */
+    public static TfIdfAnalyzer load(File file, long fingerprint) throws IOException {
+        ByteBuffer in = IndexFile.open(file, fingerprint);
+        if (in == null) {
+            return null;
+        }
+        try {
+            TfIdfAnalyzer analyzer = new TfIdfAnalyzer(in);
+            if (in.hasRemaining()) {
+                throw new IOException("Trailing data in index " + file);
+            }
+            return analyzer;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException ex) {
+            throw new IOException("Corrupt index: " + file, ex);
+        }
+    }
+
+    /**
+     * Loads the index saved in the given file if it was built from the
+     * current contents of the given corpus folder (see corpusFingerprint(...)).
+     * Otherwise, builds a new analyzer from the given webpages, saves it to
+     * the file for next time, and returns it.
+     *
+     * The index file should not be inside the corpus folder, since writing it
+     * would change the corpus fingerprint.
+     *
+     * @param webpages  supplies the pages to index; only called if the index
+     *                  has to be rebuilt
+     */
+    public static TfIdfAnalyzer loadOrBuild(File indexFile, File corpusFolder, Supplier<ISet<Webpage>> webpages) {
+        long fingerprint;
+        try {
+            fingerprint = corpusFingerprint(corpusFolder);
+        } catch (IOException ex) {
+            throw new RuntimeException("Could not read corpus folder", ex);
+        }
+        if (indexFile.exists()) {
+            try {
+                TfIdfAnalyzer loaded = load(indexFile, fingerprint);
+                if (loaded != null) {
+                    return loaded;
+                }
+            } catch (IOException ex) {
+                // A truncated or corrupt index is simply rebuilt (and overwritten).
+            }
+        }
+        TfIdfAnalyzer analyzer = new TfIdfAnalyzer(webpages.get());
+        try {
+            analyzer.save(indexFile, fingerprint);
+        } catch (IOException ex) {
+            throw new RuntimeException("Could not save index", ex);
+        }
+        return analyzer;
+    }
+
+    /**
+     * Returns a fingerprint of the given corpus folder, computed from the
+     * path, size and modification time of every file in it (recursively), so
+     * computing it never requires reading the pages themselves. Webpage cache
+     * files are ignored, since loading pages creates them.
+     */
+    public static long corpusFingerprint(File corpusFolder) throws IOException {
+        return fingerprintFolder(corpusFolder, "", 0xcbf29ce484222325L);
+    }
+
+    /**
+     * Saves this analyzer's entire index (terms, documents, term counts,
+     * document frequencies, norms and postings) to the given file, tagged
+     * with the given corpus fingerprint; see load(...). The file is replaced
+     * atomically, so a crash while saving never leaves a half-written index.
+     * The positional index (if any) is not saved, so a loaded analyzer has
+     * none.
+     */
+    public void save(File file, long fingerprint) throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+        lock.readLock().lock();
+        try (DataOutputStream out = IndexFile.create(temporary, fingerprint)) {
+            IndexFile.writeVarInt(out, terms.size());
+            for (int termId = 0; termId < terms.size(); termId++) {
+                IndexFile.writeString(out, terms.getTerm(termId));
+            }
+
+            IndexFile.writeVarInt(out, documents.size());
+            for (int docId = 0; docId < documents.size(); docId++) {
+                if (removed[docId]) {
+                    out.writeByte(0);
+                } else {
+                    out.writeByte(1);
+                    IndexFile.writeString(out, documents.getUri(docId).toString());
+                }
+            }
+
+            for (int termId = 0; termId < terms.size(); termId++) {
+                IndexFile.writeVarInt(out, documentFrequencies[termId]);
+            }
+            for (int docId = 0; docId < documents.size(); docId++) {
+                if (removed[docId]) {
+                    continue;
+                }
+                int[] termIds = documentTermIds[docId];
+                int[] counts = documentTermCounts[docId];
+                IndexFile.writeVarInt(out, documentLengths[docId]);
+                IndexFile.writeVarInt(out, termIds.length);
+                int previous = -1;
+                for (int termId : termIds) {
+                    IndexFile.writeVarInt(out, termId - previous);
+                    previous = termId;
+                }
+                for (int count : counts) {
+                    IndexFile.writeVarInt(out, count);
+                }
+                out.writeDouble(documentNorms[docId]);
+            }
+
+            for (int termId = 0; termId < terms.size(); termId++) {
+                invertedIndex[termId].write(out);
+                out.writeDouble(termUpperBounds[termId]);
+            }
 
-        this.idfScores = this.computeIdfScores(webpages);
-        this.documentTfIdfVectors = this.computeAllDocumentTfIdfVectors(webpages);
-        this.documentNorms = this.computeNorms(documentTfIdfVectors);
+            IndexFile.writeVarInt(out, removedSinceCompaction);
+            IndexFile.writeVarInt(out, changesSinceNormRefresh);
+            IndexFile.writeVarInt(out, documentsAtNormRefresh);
+        } catch (IOException ex) {
+            temporary.delete();
+            throw ex;
+        } finally {
+            lock.readLock().unlock();
+        }
+        Files.move(temporary.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
     }
 
     // Note: this method, strictly speaking, doesn't need to exist. However,
     // we've included it so we can add some unit tests to help verify that your
     // constructor correctly initializes your fields.
+    //
+    // The vectors are no longer stored as dictionaries, so this rebuilds them
+    // (with the current IDF scores) on every call: don't use it on a hot path.
     public IDictionary<URI, IDictionary<String, Double>> getDocumentTfIdfVectors() {
-        return this.documentTfIdfVectors;
+        lock.readLock().lock();
+        try {
+            IDictionary<URI, IDictionary<String, Double>> output = new ChainedHashDictionary<>();
+            for (int docId = 0; docId < documents.size(); docId++) {
+                if (removed[docId]) {
+                    continue;
+                }
+                int[] termIds = documentTermIds[docId];
+                int[] counts = documentTermCounts[docId];
+                IDictionary<String, Double> words = new ChainedHashDictionary<>();
+                for (int i = 0; i < termIds.length; i++) {
+                    double weight = IndexBuilder.weight(counts[i], documentLengths[docId], idf(termIds[i]));
+                    words.put(terms.getTerm(termIds[i]), weight);
+                }
+                output.put(documents.getUri(docId), words);
+            }
+            return output;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds the given page to the index.
+     *
+     * @throws IllegalArgumentException  if a page with the same URI is already
+     *                                   indexed
+     */
+    public void addPage(Webpage page) {
+        lock.writeLock().lock();
+        try {
+            addDocument(page);
+            changesSinceNormRefresh++;
+            refreshNormsIfNeeded();
+            invalidateResults();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the page with the given URI from the index.
+     *
+     * @throws IllegalArgumentException  if no page with that URI is indexed
+     */
+    public void removePage(URI pageUri) {
+        lock.writeLock().lock();
+        try {
+            removeDocument(pageUri);
+            changesSinceNormRefresh++;
+            refreshNormsIfNeeded();
+            invalidateResults();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces the indexed page with the same URI as the given one (e.g. after
+     * it was re-crawled). If no page with that URI is indexed, simply adds it.
+     */
+    public void updatePage(Webpage page) {
+        lock.writeLock().lock();
+        try {
+            if (documents.getId(page.getUri()) != -1) {
+                removeDocument(page.getUri());
+            }
+            addDocument(page);
+            changesSinceNormRefresh++;
+            refreshNormsIfNeeded();
+            invalidateResults();
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
-    // Note: these private methods are suggestions or hints on how to structure your
-    // code. However, since they're private, you're not obligated to implement exactly
-    // these methods: feel free to change or modify these methods however you want. The
-    // important thing is that your 'computeRelevance' method ultimately returns the
-    // correct answer in an efficient manner.
+    /**
+     * Sets how far the cached document norms may drift before they are
+     * recomputed: once the number of pages added, removed or updated since the
+     * last refresh exceeds this fraction of the number of pages, every norm is
+     * recomputed with the current IDF scores. Use 0 to refresh after every
+     * change, which keeps scores exact at the cost of O(index) work per change.
+     *
+     * @throws IllegalArgumentException  if threshold < 0
+     */
+    public void setNormRefreshThreshold(double threshold) {
+        if (threshold < 0 || Double.isNaN(threshold)) {
+            throw new IllegalArgumentException();
+        }
+        lock.writeLock().lock();
+        try {
+            this.normRefreshThreshold = threshold;
+            refreshNormsIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
 
     /**
-     * Return a dictionary mapping every single unique word found
-     * in every single document to their IDF score.
+     * Recomputes every document norm with the current IDF scores, and drops the
+     * postings of removed pages. Afterwards, scores are exactly what a fresh
+     * TfIdfAnalyzer over the same pages would compute. With snapshot isolation,
+     * also publishes a new snapshot right away.
      */
+    public void refreshNorms() {
+        lock.writeLock().lock();
+        try {
+            double[] idfScores = IndexBuilder.computeIdfScores(idfFrequencies(documentFrequencies),
+                    idfDocumentCount());
+            for (int docId = 0; docId < documents.size(); docId++) {
+                if (!removed[docId]) {
+                    documentNorms[docId] = IndexBuilder.norm(documentTermIds[docId], documentTermCounts[docId],
+                            documentLengths[docId], idfScores);
+                }
+            }
+            if (removedSinceCompaction > 0) {
+                invertedIndex = buildInvertedIndex();
+                dropTermCounts(documents.size(), docId -> removed[docId]);
+                removedSinceCompaction = 0;
+            }
+            termUpperBounds = computeTermUpperBounds();
+            changesSinceNormRefresh = 0;
+            documentsAtNormRefresh = documents.liveSize();
+            if (snapshotIsolation) {
+                snapshot = buildSnapshot(snapshot);
+            }
+            invalidateResults();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
 
-    private IDictionary<String, Double> computeIdfScores(ISet<Webpage> pages) {
-        IDictionary<String, Double> termInDocsCount = new ChainedHashDictionary<>();
-        for (Webpage page: pages) {
-            IList<String> wordsInPage = page.getWords();
-            ISet<String> uniqueWords = new ChainedHashSet<>();
-            for (String word: wordsInPage) {
-                if (!uniqueWords.contains(word)) {
-                    uniqueWords.add(word);  // record the page has the word
-                    termInDocsCount.put(word, termInDocsCount.getOrDefault(word, 0.0) + 1.0);
+    /**
+     * Returns this analyzer's own document count and the document frequency
+     * of every word in its pages.
+     */
+    public CorpusStatistics getCorpusStatistics() {
+        lock.readLock().lock();
+        try {
+            CorpusStatistics statistics = new CorpusStatistics();
+            statistics.addDocuments(documents.liveSize());
+            for (int termId = 0; termId < terms.size(); termId++) {
+                if (documentFrequencies[termId] > 0) {
+                    statistics.addTerm(terms.getTerm(termId), documentFrequencies[termId]);
                 }
             }
+            return statistics;
+        } finally {
+            lock.readLock().unlock();
         }
-        int totalDoc = pages.size();
-        IDictionary<String, Double> idf = new ChainedHashDictionary<>();
-        for (KVPair<String, Double> word : termInDocsCount) {
-            double idfScore = Math.log(totalDoc/word.getValue());
-            idf.put(word.getKey(), idfScore);
+    }
+
+    /**
+     * Makes IDF scores come from the given statistics of a whole corpus, of
+     * which this analyzer only holds a shard, rather than from this analyzer's
+     * own pages; or from its own pages again, if null. Then refreshes the
+     * norms (see refreshNorms()).
+     *
+     * With the statistics of every shard added up, every shard then scores its
+     * pages the same as a single analyzer over the whole corpus would, up to
+     * floating-point rounding. The statistics are kept as they are: words that
+     * only appear in pages added afterwards use this analyzer's own document
+     * frequencies. The given statistics must not be modified afterwards.
+     */
+    public void setGlobalStatistics(CorpusStatistics statistics) {
+        lock.writeLock().lock();
+        try {
+            globalStatistics = statistics;
+            globalFrequencies = statistics != null ? new int[0] : null;
+            syncGlobalFrequencies();
+            refreshNorms();
+        } finally {
+            lock.writeLock().unlock();
         }
-        return idf;
     }
 
     /**
-     * Returns a dictionary mapping every unique word found in the given list
-     * to their term frequency (TF) score.
+     * Turns snapshot isolation on or off. It is off by default.
      *
-     * The input list represents the words contained within a single document.
+     * While it is on, queries are served from the most recently published
+     * snapshot of the IDF scores and norms, and changes to the pages are
+     * published in the background (see awaitSnapshot()). Turning it off makes
+     * every change visible immediately again, and refreshes the norms.
      */
-    private IDictionary<String, Double> computeTfScores(IList<String> words) {
-        double totalWords = words.size();
-        IDictionary<String, Double> count = new ChainedHashDictionary<>();
-        for (String word: words) {
-            if (count.containsKey(word)) {
-                double currentCount = count.get(word);
-                currentCount++;
-                count.put(word, currentCount);
+    public void setSnapshotIsolation(boolean enabled) {
+        lock.writeLock().lock();
+        try {
+            if (enabled == snapshotIsolation) {
+                return;
+            }
+            snapshotIsolation = enabled;
+            if (enabled) {
+                snapshot = buildSnapshot(null);
+                invalidateResults();
             } else {
-                count.put(word, 1.0);
+                snapshot = null;
+                refreshNorms();
             }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean isSnapshotIsolation() {
+        lock.readLock().lock();
+        try {
+            return snapshotIsolation;
+        } finally {
+            lock.readLock().unlock();
         }
-        IDictionary<String, Double> tfScores = new ChainedHashDictionary<>();
-        for (KVPair<String, Double> word : count) {
-            double tfScore = word.getValue()/totalWords;
-            tfScores.put(word.getKey(), tfScore);
+    }
+
+    /**
+     * Returns the version of the snapshot queries are currently served from,
+     * or -1 if snapshot isolation is off. Versions increase by one every time
+     * a snapshot is published.
+     */
+    public long getSnapshotVersion() {
+        IdfSnapshot current = snapshot;
+        return current != null ? current.getVersion() : -1;
+    }
+
+    /**
+     * Blocks until every change to the pages made so far is visible to
+     * queries, i.e. until the background thread has published a snapshot
+     * that includes them. Returns immediately if snapshot isolation is off.
+     */
+    public void awaitSnapshot() throws InterruptedException {
+        synchronized (snapshotMonitor) {
+            while (snapshotRunning) {
+                snapshotMonitor.wait();
+            }
         }
-        return tfScores;
     }
 
     /**
-     * See spec for more details on what this method should do.
+     * Converts the given query to a TF-IDF vector once, so it can be scored
+     * against many pages. Words that appear in none of the documents are
+     * ignored, but still count towards the query length.
+     *
+     * @throws IllegalArgumentException  if query is null
      */
-    private IDictionary<URI, IDictionary<String, Double>> computeAllDocumentTfIdfVectors(ISet<Webpage> pages) {
-        // Hint: this method should use the idfScores field and
-        // call the computeTfScores(...) method.
-        IDictionary<URI, IDictionary<String, Double>> vector = new ChainedHashDictionary<>();
-        idfScores = computeIdfScores(pages);
-        for (Webpage page: pages) {
-            URI uri = page.getUri();
-            IList<String> words = page.getWords();
-            vector.put(uri, computeSingleDocumentTfIdfVectors(words));
+    public PreparedQuery prepare(IList<String> query) {
+        if (query == null) {
+            throw new IllegalArgumentException();
+        }
+        lock.readLock().lock();
+        try {
+            IdfSnapshot current = snapshot;
+            int[] ids = new int[query.size()];
+            int known = 0;
+            String[] elsewhere = new String[query.size()];
+            int numElsewhere = 0;
+            for (String word : query) {
+                int termId = terms.getId(word);
+                int frequency;
+                if (termId == -1) {
+                    frequency = 0;
+                } else if (current != null) {
+                    frequency = current.getDocumentFrequency(termId);
+                } else {
+                    frequency = documentFrequencies[termId];
+                }
+                if (frequency > 0) {
+                    ids[known] = termId;
+                    known++;
+                } else if (globalStatistics != null && globalStatistics.getDocumentFrequency(word) > 0) {
+                    elsewhere[numElsewhere] = word;
+                    numElsewhere++;
+                }
+            }
+            int[][] counted = IndexBuilder.countIds(ids, known);
+            int[] termIds = counted[0];
+            double[] weights = new double[termIds.length];
+            double[] idfScores = new double[termIds.length];
+            for (int i = 0; i < termIds.length; i++) {
+                idfScores[i] = current != null ? current.getIdf(termIds[i]) : idf(termIds[i]);
+                weights[i] = IndexBuilder.weight(counted[1][i], query.size(), idfScores[i]);
+            }
+            return new PreparedQuery(this, current, termIds, weights, idfScores,
+                    weightsElsewhere(elsewhere, numElsewhere, query.size()));
+        } finally {
+            lock.readLock().unlock();
         }
-        return vector;
     }
 
-    private IDictionary<String, Double> computeSingleDocumentTfIdfVectors(IList<String> list) {
-        IDictionary<String, Double> tfIdfScores = new ChainedHashDictionary<>();
-        IDictionary<String, Double> tf = computeTfScores(list);
-        for (KVPair<String, Double> wordFre: tf) {
-            String word = wordFre.getKey();
-            if (idfScores.containsKey(word)) {
-                Double fre = wordFre.getValue();
-                tfIdfScores.put(word, fre * idfScores.get(word));
+    /**
+     * Returns the query weight of each of the first 'count' given words, which
+     * only appear in other shards' pages, in a query of 'length' words.
+     */
+    private double[] weightsElsewhere(String[] words, int count, int length) {
+        Arrays.sort(words, 0, count);
+        double[] weights = new double[count];
+        int distinct = 0;
+        int start = 0;
+        while (start < count) {
+            int end = start + 1;
+            while (end < count && words[end].equals(words[start])) {
+                end++;
             }
+            double idf = Math.log((double) idfDocumentCount() / globalStatistics.getDocumentFrequency(words[start]));
+            weights[distinct] = IndexBuilder.weight(end - start, length, idf);
+            distinct++;
+            start = end;
         }
-        return tfIdfScores;
+        return Arrays.copyOf(weights, distinct);
     }
+
     /**
      * Returns the cosine similarity between the TF-IDF vector for the given query and the
      * URI's document.
@@ -146,46 +756,1264 @@ public class TfIdfAnalyzer {
      *               webpages given to the constructor.
      */
     public Double computeRelevance(IList<String> query, URI pageUri) {
-        // Note: The pseudocode we gave you is not very efficient. When implementing,
-        // this method, you should:
-        //
-        // 1. Figure out what information can be precomputed in your constructor.
-        //    Add a third field containing that information.
-        //
-        // 2. See if you can combine or merge one or more loops.
-        if (documentTfIdfVectors.containsKey(pageUri)) {
-            IDictionary<String, Double> docVector = documentTfIdfVectors.get(pageUri);
-            IDictionary<String, Double> queryVector = computeSingleDocumentTfIdfVectors(query);
+        return computeRelevance(prepare(query), pageUri);
+    }
 
+    /**
+     * Like computeRelevance(IList, URI), but for a query that was already prepared.
+     *
+     * @throws IllegalArgumentException  if the query was prepared by another analyzer
+     */
+    public double computeRelevance(PreparedQuery query, URI pageUri) {
+        checkOwner(query);
+        lock.readLock().lock();
+        try {
+            // A query prepared against a snapshot scores the page as it was
+            // then, even if it has been updated or removed since.
+            int docId = query.getSnapshot() != null
+                    ? documents.getId(pageUri, visibleDocuments(query))
+                    : documents.getId(pageUri);
+            // The term counts of a removed page are dropped once no newer
+            // snapshot can see it, even if an old query still could.
+            if (docId == -1 || isRemoved(query, docId) || documentTermIds[docId] == null) {
+                return 0.0;
+            }
+            int[] termIds = documentTermIds[docId];
+            int[] counts = documentTermCounts[docId];
             double numerator = 0.0;
-            for (KVPair<String, Double> pair : queryVector) {
-                String key = pair.getKey();
-                numerator += docVector.getOrDefault(key, 0.0) * queryVector.get(key);
+            int i = 0;
+            int j = 0;
+            while (i < query.size() && j < termIds.length) {
+                if (query.getTermId(i) < termIds[j]) {
+                    i++;
+                } else if (query.getTermId(i) > termIds[j]) {
+                    j++;
+                } else {
+                    double weight = IndexBuilder.weight(counts[j], documentLengths[docId], query.getIdf(i));
+                    numerator += weight * query.getWeight(i);
+                    i++;
+                    j++;
+                }
             }
-            double denominator = documentNorms.get(pageUri) * norm(queryVector);
+            double denominator = documentNorm(query, docId) * query.getNorm();
             if (denominator != 0) {
                 return numerator / denominator;
             }
+            return 0.0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the relevance of every document to the given query, indexed by
+     * document id (see getDocumentUri). Only the postings of the query's words
+     * are visited; every other document, and every removed one, scores 0.
+     *
+     * @throws IllegalArgumentException  if the query was prepared by another analyzer
+     */
+    public double[] scoreAll(PreparedQuery query) {
+        checkOwner(query);
+        lock.readLock().lock();
+        try {
+            double[] scores = new double[documents.size()];
+            accumulate(query, 0, documents.size(), scores, new boolean[documents.size()],
+                    new int[documents.size()]);
+            return scores;
+        } finally {
+            lock.readLock().unlock();
         }
-        return 0.0;
+    }
 
+    /**
+     * Returns the number of document ids handed out so far. Document ids range
+     * from 0 to this number, exclusive; ids of removed pages are never reused.
+     */
+    public int getDocumentCount() {
+        lock.readLock().lock();
+        try {
+            return documents.size();
+        } finally {
+            lock.readLock().unlock();
+        }
     }
-    private IDictionary<URI, Double> computeNorms(IDictionary<URI, IDictionary<String, Double>> vectors) {
-        IDictionary<URI, Double> norms = new ChainedHashDictionary<>();
-        for (KVPair<URI, IDictionary<String, Double>> vector : vectors) {
-            URI uri = vector.getKey();
-            double norm = norm(vector.getValue());
-            norms.put(uri, norm);
+
+    /**
+     * Returns the URI of the document with the given id, or null if that page
+     * has been removed.
+     */
+    public URI getDocumentUri(int docId) {
+        lock.readLock().lock();
+        try {
+            URI uri = documents.getUri(docId);
+            return removed[docId] ? null : uri;
+        } finally {
+            lock.readLock().unlock();
         }
-        return norms;
     }
 
-    private Double norm(IDictionary<String, Double> vector) {
-        double output = 0.0;
-        for (KVPair<String, Double> pair: vector) {
-            double score = pair.getValue();
-            output += score * score;
+    /**
+     * Returns the (at most) k pages most relevant to the given query, ordered
+     * from most to least relevant.
+     *
+     * Unlike calling computeRelevance(...) on every page, this only visits the
+     * postings of the query's words, so pages sharing no words with the query
+     * are never touched. The scores are identical to computeRelevance(...);
+     * pages with equal scores are ordered as by SearchResult, and pages whose
+     * norm is 0 (which score 0 no matter the query) are left out.
+     *
+     * @throws IllegalArgumentException  if k < 0 or query is null
+     */
+    public IList<SearchResult> search(IList<String> query, int k) {
+        QueryResultCache cache = resultCache;
+        if (cache == null) {
+            return search(prepare(query), k);
+        }
+        if (query == null || k < 0) {
+            throw new IllegalArgumentException();
+        }
+        QueryResultCache.Key key = new QueryResultCache.Key(query, k);
+        // Read before searching, so results computed from pages or scores
+        // that changed in the meantime are never cached.
+        long generation = cache.getGeneration();
+        IList<SearchResult> results = cache.get(key);
+        if (results == null) {
+            results = search(prepare(query), k);
+            cache.put(key, results, generation);
+        }
+        return results;
+    }
+
+    /**
+     * Like search(IList, int), but for a query that was already prepared.
+     *
+     * @throws IllegalArgumentException  if k < 0, or the query is null or was
+     *                                   prepared by another analyzer
+     */
+    public IList<SearchResult> search(PreparedQuery query, int k) {
+        checkOwner(query);
+        if (k < 0) {
+            throw new IllegalArgumentException();
+        }
+        if (k == 0 || query.getNorm() == 0.0) {
+            return new DoubleLinkedList<>();
+        }
+        lock.readLock().lock();
+        try {
+            int visible = visibleDocuments(query);
+            if (searchShards > 1) {
+                return searchSharded(query, k, visible);
+            }
+            return drainResults(searchRange(query, k, 0, visible));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Like search(IList, int), but only returns pages containing every one of
+     * the query's words (an AND query). Scores are identical to
+     * computeRelevance(...).
+     *
+     * Rather than scoring every page sharing some word with the query, this
+     * intersects the words' postings, starting from the rarest word: every
+     * page containing it is looked up in the next rarest word's postings (by
+     * galloping over their skip data, see CompressedPostingList.Cursor), and so
+     * on. Only pages found in all of them are scored, so queries with several
+     * words score a tiny fraction of the pages an OR query would.
+     *
+     * @throws IllegalArgumentException  if k < 0 or query is null
+     */
+    public IList<SearchResult> searchAll(IList<String> query, int k) {
+        if (query == null || k < 0) {
+            throw new IllegalArgumentException();
+        }
+        lock.readLock().lock();
+        try {
+            PreparedQuery prepared = prepare(query);
+            // prepare(...) drops words no page contains, in which case no page
+            // contains them all.
+            if (k == 0 || prepared.getNorm() == 0.0 || prepared.size() < countDistinct(query)) {
+                return new DoubleLinkedList<>();
+            }
+            return drainResults(intersect(prepared, k, visibleDocuments(prepared)));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static int countDistinct(IList<String> words) {
+        String[] sorted = new String[words.size()];
+        int i = 0;
+        for (String word : words) {
+            sorted[i] = word;
+            i++;
+        }
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for (i = 0; i < sorted.length; i++) {
+            if (i == 0 || !sorted[i].equals(sorted[i - 1])) {
+                distinct++;
+            }
+        }
+        return distinct;
+    }
+
+    /**
+     * Returns a heap of the top k documents with ids below 'end' that contain
+     * every word of the given query. Must be called while holding the read
+     * lock.
+     */
+    private DoubleIntMinHeap intersect(PreparedQuery query, int k, int end) {
+        int numTerms = query.size();
+        double queryNorm = query.getNorm();
+
+        // order[j] is the index of the query word with the j-th shortest
+        // postings (by insertion sort: queries are short).
+        int[] order = new int[numTerms];
+        for (int i = 0; i < numTerms; i++) {
+            int size = invertedIndex[query.getTermId(i)].size();
+            int j = i;
+            while (j > 0 && invertedIndex[query.getTermId(order[j - 1])].size() > size) {
+                order[j] = order[j - 1];
+                j--;
+            }
+            order[j] = i;
+        }
+        CompressedPostingList.Cursor[] cursors = new CompressedPostingList.Cursor[numTerms];
+        for (int i = 0; i < numTerms; i++) {
+            cursors[i] = invertedIndex[query.getTermId(i)].cursor();
+        }
+
+        // Only pages containing the rarest word can match, so k may be far
+        // more than could ever be found.
+        int capacity = Math.min(k, invertedIndex[query.getTermId(order[0])].size());
+        DoubleIntMinHeap heap = new DoubleIntMinHeap(capacity, this::compareUris);
+        CompressedPostingList.Cursor rarest = cursors[order[0]];
+        long scored = 0;
+        int docId = rarest.docId();
+        while (docId < end) {
+            int j = 1;
+            while (j < numTerms) {
+                CompressedPostingList.Cursor cursor = cursors[order[j]];
+                cursor.advance(docId);
+                if (cursor.docId() != docId) {
+                    break;
+                }
+                j++;
+            }
+            if (j < numTerms) {
+                // Some word's next page comes after docId; no page before it
+                // can contain every word.
+                rarest.advance(cursors[order[j]].docId());
+            } else {
+                // Like accumulate(...), leave out pages whose norm is 0: every
+                // word they contain appears in every page, so they are
+                // relevant to nothing.
+                double documentNorm = documentNorm(query, docId);
+                if (!isRemoved(query, docId) && documentNorm != 0) {
+                    // Sum in the same order as accumulate(...), so the score is
+                    // identical.
+                    double numerator = 0.0;
+                    for (int i = 0; i < numTerms; i++) {
+                        numerator += postingWeight(cursors[i], query.getIdf(i)) * query.getWeight(i);
+                    }
+                    heap.offer(numerator / (documentNorm * queryNorm), docId);
+                    scored++;
+                }
+                rarest.next();
+            }
+            docId = rarest.docId();
+        }
+        documentsScored.addAndGet(scored);
+        return heap;
+    }
+
+    /**
+     * Empties the given heap of (score, document id) pairs into a list of
+     * results, from highest to lowest score. Must be called while holding the
+     * read lock.
+     */
+    private IList<SearchResult> drainResults(DoubleIntMinHeap heap) {
+        double[] scores = new double[heap.size()];
+        int[] docIds = new int[heap.size()];
+        for (int i = 0; i < docIds.length; i++) {
+            scores[i] = heap.peekMinScore();
+            docIds[i] = heap.removeMin();
+        }
+        IList<SearchResult> results = new DoubleLinkedList<>();
+        for (int i = docIds.length - 1; i >= 0; i--) {
+            results.add(new SearchResult(documents.getUri(docIds[i]), scores[i]));
+        }
+        return results;
+    }
+
+    /**
+     * Like search(IList, int), but rewards pages where the query's words appear
+     * close together: every page's score is its relevance multiplied by
+     * (1 + boost * proximity), where proximity is 1 if the page contains the
+     * query as a phrase, less the further apart its words are, and 0 if it
+     * doesn't contain all of them (see PositionalIndex.proximity(...)).
+     *
+     * Since proximity can at most multiply a score by (1 + boost), only the
+     * most relevant pages need to be re-ranked: we start with a few times k of
+     * them, and take more only while a page outside them could still make the
+     * top k. Pages with equal scores are ordered as by SearchResult.
+     *
+     * @throws IllegalArgumentException  if query is null, k < 0 or boost < 0
+     * @throws IllegalStateException     if this analyzer was built without
+     *                                   positions
+     */
+    public IList<SearchResult> searchWithProximity(IList<String> query, int k, double boost) {
+        if (query == null || k < 0 || !(boost >= 0)) {
+            throw new IllegalArgumentException();
+        }
+        lock.readLock().lock();
+        try {
+            if (positions == null) {
+                throw new IllegalStateException("Analyzer was built without positions");
+            }
+            PreparedQuery prepared = prepare(query);
+            int[] queryTermIds = new int[query.size()];
+            int word = 0;
+            for (String term : query) {
+                queryTermIds[word] = terms.getId(term);
+                word++;
+            }
+
+            long candidates = (long) k * PROXIMITY_CANDIDATES;
+            while (true) {
+                IList<SearchResult> top = search(prepared, (int) Math.min(Integer.MAX_VALUE, candidates));
+                // The proximity scorer walks the postings in document id order.
+                long[] byDocId = new long[top.size()];
+                SearchResult[] results = new SearchResult[top.size()];
+                double lowest = 0.0;
+                int i = 0;
+                for (SearchResult result : top) {
+                    results[i] = result;
+                    byDocId[i] = ((long) documents.getId(result.getUri(), visibleDocuments(prepared)) << 32) | i;
+                    lowest = result.getScore();
+                    i++;
+                }
+                Arrays.sort(byDocId);
+                int[] docIds = new int[byDocId.length];
+                for (i = 0; i < docIds.length; i++) {
+                    docIds[i] = (int) (byDocId[i] >>> 32);
+                }
+                double[] proximity = positions.proximity(queryTermIds, docIds);
+
+                TopKCollector<SearchResult> best = new TopKCollector<>(k);
+                for (i = 0; i < docIds.length; i++) {
+                    SearchResult result = results[(int) byDocId[i]];
+                    best.offer(new SearchResult(result.getUri(), result.getScore() * (1 + boost * proximity[i])));
+                }
+                IList<SearchResult> ascending = best.result();
+                boolean exhausted = top.size() < candidates;
+                if (exhausted || ascending.isEmpty() || lowest * (1 + boost) < ascending.get(0).getScore()) {
+                    SearchResult[] descending = new SearchResult[ascending.size()];
+                    int next = descending.length;
+                    for (SearchResult result : ascending) {
+                        next--;
+                        descending[next] = result;
+                    }
+                    IList<SearchResult> output = new DoubleLinkedList<>();
+                    for (SearchResult result : descending) {
+                        output.add(result);
+                    }
+                    return output;
+                }
+                candidates *= PROXIMITY_CANDIDATES;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns true if this analyzer was built with positions, so
+     * searchWithProximity(...) can be used.
+     */
+    public boolean hasPositions() {
+        lock.readLock().lock();
+        try {
+            return positions != null;
+        } finally {
+            lock.readLock().unlock();
         }
-        return Math.sqrt(output);
     }
+
+    /**
+     * Returns the number of bytes used by the positional index, or 0 if there
+     * is none.
+     */
+    public long getPositionalIndexBytes() {
+        lock.readLock().lock();
+        try {
+            return positions != null ? positions.sizeInBytes() : 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Splits search(...) into the given number of shards, scored in parallel
+     * on a dedicated pool of threads. The default is a single shard, scored on
+     * the calling thread.
+     *
+     * Every shard covers an equal, contiguous range of document ids, and
+     * finds its own top k using only its slice of each posting list (located
+     * through the lists' skip data) and the shared, global IDF scores. The
+     * shards' results are then merged into the overall top k. The results
+     * are exactly the same for every number of shards; only the latency of
+     * large queries differs.
+     *
+     * @throws IllegalArgumentException  if shards < 1
+     */
+    public void setSearchShards(int shards) {
+        if (shards < 1) {
+            throw new IllegalArgumentException();
+        }
+        lock.writeLock().lock();
+        try {
+            if (searchPool != null) {
+                searchPool.shutdown();
+                searchPool = null;
+            }
+            searchShards = shards;
+            if (shards > 1) {
+                searchPool = new ForkJoinPool(shards);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int getSearchShards() {
+        lock.readLock().lock();
+        try {
+            return searchShards;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Turns dynamic pruning in search(...) on or off. It is on by default.
+     *
+     * With pruning, search(...) visits documents in id order across all the
+     * query words' postings (MaxScore) and stops scoring a document as soon as
+     * it can't beat the k-th best score found so far. The results are exactly
+     * the same either way; only the amount of work differs.
+     */
+    public void setDynamicPruning(boolean enabled) {
+        this.dynamicPruning = enabled;
+    }
+
+    public boolean isDynamicPruning() {
+        return this.dynamicPruning;
+    }
+
+    /**
+     * Returns the number of documents search(...) fully scored, since this
+     * analyzer was created or resetCounters() was last called.
+     */
+    public long getDocumentsScored() {
+        return documentsScored.get();
+    }
+
+    /**
+     * Returns the number of candidate documents search(...) stopped scoring
+     * because they could not make the top k, since this analyzer was created or
+     * resetCounters() was last called. Documents that only contain words too
+     * rare to matter are never even visited, and are not counted here.
+     */
+    public long getDocumentsSkipped() {
+        return documentsSkipped.get();
+    }
+
+    /**
+     * Puts the given cache in front of search(IList, int), replacing the
+     * current one (if any); use null to stop caching. A cache should only be
+     * used by one analyzer at a time. Starts out empty.
+     */
+    public void setResultCache(QueryResultCache cache) {
+        lock.writeLock().lock();
+        try {
+            if (cache != null) {
+                cache.invalidate();
+            }
+            resultCache = cache;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public QueryResultCache getResultCache() {
+        return resultCache;
+    }
+
+    public void resetCounters() {
+        documentsScored.set(0);
+        documentsSkipped.set(0);
+    }
+
+    /**
+     * Scatters the query across searchShards ranges of document ids, scoring
+     * the first on the calling thread and the rest on the search pool, then
+     * gathers the shards' top k into the overall top k.
+     *
+     * Must be called while holding the read lock. The workers don't take the
+     * lock themselves: the calling thread holds it until they are all done.
+     */
+    private IList<SearchResult> searchSharded(PreparedQuery query, int k, int visible) {
+        int shards = searchShards;
+        IList<ForkJoinTask<DoubleIntMinHeap>> tasks = new DoubleLinkedList<>();
+        for (int shard = 1; shard < shards; shard++) {
+            int lo = (int) ((long) visible * shard / shards);
+            int hi = (int) ((long) visible * (shard + 1) / shards);
+            tasks.add(searchPool.submit(() -> searchRange(query, k, lo, hi)));
+        }
+        TopKCollector<SearchResult> collector = new TopKCollector<>(k);
+        collectHits(searchRange(query, k, 0, (int) ((long) visible / shards)), collector);
+        for (ForkJoinTask<DoubleIntMinHeap> task : tasks) {
+            collectHits(task.join(), collector);
+        }
+
+        IList<SearchResult> ascending = collector.result();
+        SearchResult[] top = new SearchResult[ascending.size()];
+        int next = top.length;
+        for (SearchResult result : ascending) {
+            next--;
+            top[next] = result;
+        }
+        IList<SearchResult> results = new DoubleLinkedList<>();
+        for (SearchResult result : top) {
+            results.add(result);
+        }
+        return results;
+    }
+
+    private void collectHits(DoubleIntMinHeap heap, TopKCollector<SearchResult> collector) {
+        while (!heap.isEmpty()) {
+            double score = heap.peekMinScore();
+            collector.offer(new SearchResult(documents.getUri(heap.removeMin()), score));
+        }
+    }
+
+    /**
+     * Returns a heap holding the (at most) k most relevant documents with ids
+     * in [lo, hi), along with their scores.
+     */
+    private DoubleIntMinHeap searchRange(PreparedQuery query, int k, int lo, int hi) {
+        if (dynamicPruning) {
+            return searchWithPruning(query, k, lo, hi);
+        }
+        double[] scores = new double[hi - lo];
+        int[] candidates = new int[hi - lo];
+        int numCandidates = accumulate(query, lo, hi, scores, new boolean[hi - lo], candidates);
+        documentsScored.addAndGet(numCandidates);
+
+        // Offer the candidates straight to the result heap: sorting them first
+        // would only have to be undone.
+        DoubleIntMinHeap heap = new DoubleIntMinHeap(Math.min(k, numCandidates), this::compareUris);
+        for (int i = 0; i < numCandidates; i++) {
+            heap.offer(scores[candidates[i] - lo], candidates[i]);
+        }
+        return heap;
+    }
+
+    /**
+     * Document-at-a-time top-k retrieval with MaxScore pruning.
+     *
+     * The query words are ordered by how much they can contribute to a score at
+     * most. Once the k-th best score so far (the threshold) exceeds the total
+     * of the smallest contributions, those words become "non-essential": a
+     * document containing only them can't make the top k, so we only take
+     * candidates from the essential words' postings and look the others up
+     * (by galloping through their postings) while the candidate could still
+     * beat the threshold.
+     *
+     * A candidate that merely ties the threshold may still win the tie (by
+     * URI, see SearchResult), so we only prune candidates that can't reach it.
+     *
+     * Only documents with ids in [lo, hi) are considered. Returns a heap of the
+     * top k. Must be called while holding the read lock.
+     */
+    private DoubleIntMinHeap searchWithPruning(PreparedQuery query, int k, int lo, int hi) {
+        int numTerms = query.size();
+        double queryNorm = query.getNorm();
+
+        CompressedPostingList.Cursor[] cursors = new CompressedPostingList.Cursor[numTerms];
+        double[] bounds = new double[numTerms];
+        for (int i = 0; i < numTerms; i++) {
+            int termId = query.getTermId(i);
+            cursors[i] = invertedIndex[termId].cursor();
+            cursors[i].advance(lo);
+            bounds[i] = query.getWeight(i) * query.getIdf(i) * termUpperBound(query, termId) / queryNorm;
+        }
+
+        // order[j] is the index of the query word with the j-th smallest bound,
+        // and cumulativeBounds[j] is the sum of the j+1 smallest bounds.
+        int[] order = new int[numTerms];
+        for (int i = 0; i < numTerms; i++) {
+            int j = i;
+            while (j > 0 && bounds[order[j - 1]] > bounds[i]) {
+                order[j] = order[j - 1];
+                j--;
+            }
+            order[j] = i;
+        }
+        double[] cumulativeBounds = new double[numTerms];
+        double total = 0.0;
+        for (int j = 0; j < numTerms; j++) {
+            total += bounds[order[j]];
+            cumulativeBounds[j] = total * UPPER_BOUND_SLACK;
+        }
+
+        double[] contributions = new double[numTerms];
+        boolean[] matched = new boolean[numTerms];
+        DoubleIntMinHeap heap = new DoubleIntMinHeap(maxResults(query, k, lo, hi), this::compareUris);
+        double threshold = Double.NEGATIVE_INFINITY;
+        int firstEssential = 0;
+        long scored = 0;
+        long skipped = 0;
+
+        while (true) {
+            int docId = Integer.MAX_VALUE;
+            for (int j = firstEssential; j < numTerms; j++) {
+                docId = Math.min(docId, cursors[order[j]].docId());
+            }
+            if (docId >= hi) {
+                break;
+            }
+            if (isRemoved(query, docId) || documentNorm(query, docId) == 0) {
+                for (int j = firstEssential; j < numTerms; j++) {
+                    if (cursors[order[j]].docId() == docId) {
+                        cursors[order[j]].next();
+                    }
+                }
+                continue;
+            }
+
+            Arrays.fill(matched, false);
+            double denominator = documentNorm(query, docId) * queryNorm;
+            double partial = 0.0;
+            for (int j = firstEssential; j < numTerms; j++) {
+                int i = order[j];
+                if (cursors[i].docId() == docId) {
+                    contributions[i] = postingWeight(cursors[i], query.getIdf(i)) * query.getWeight(i);
+                    matched[i] = true;
+                    partial += contributions[i];
+                    cursors[i].next();
+                }
+            }
+
+            boolean pruned = false;
+            for (int j = firstEssential - 1; j >= 0; j--) {
+                double partialScore = denominator != 0 ? partial / denominator : 0.0;
+                if (partialScore * UPPER_BOUND_SLACK + cumulativeBounds[j] < threshold) {
+                    pruned = true;
+                    break;
+                }
+                int i = order[j];
+                cursors[i].advance(docId);
+                if (cursors[i].docId() == docId) {
+                    contributions[i] = postingWeight(cursors[i], query.getIdf(i)) * query.getWeight(i);
+                    matched[i] = true;
+                    partial += contributions[i];
+                }
+            }
+            if (pruned) {
+                skipped++;
+                continue;
+            }
+
+            // Sum in the same order as accumulate(...), so the score is identical.
+            double numerator = 0.0;
+            for (int i = 0; i < numTerms; i++) {
+                if (matched[i]) {
+                    numerator += contributions[i];
+                }
+            }
+            heap.offer(denominator != 0 ? numerator / denominator : 0.0, docId);
+            scored++;
+
+            if (heap.size() == k) {
+                threshold = heap.peekMinScore();
+                while (firstEssential < numTerms && cumulativeBounds[firstEssential] < threshold) {
+                    firstEssential++;
+                }
+            }
+        }
+        documentsScored.addAndGet(scored);
+        documentsSkipped.addAndGet(skipped);
+        return heap;
+    }
+
+    /**
+     * Walks the postings of every query word, storing the relevance of every
+     * (visible, non-removed) document with an id in [lo, hi) containing at
+     * least one of them in 'scores' (at index docId - lo). The ids of those
+     * documents, except the ones whose norm is 0, are stored in 'candidates',
+     * and their number is returned. 'visited' (also indexed by docId - lo)
+     * must be all false.
+     *
+     * Must be called while holding the read lock.
+     */
+    private int accumulate(PreparedQuery query, int lo, int hi, double[] scores, boolean[] visited,
+                           int[] candidates) {
+        int end = Math.min(hi, visibleDocuments(query));
+        int numCandidates = 0;
+        for (int i = 0; i < query.size(); i++) {
+            double idf = query.getIdf(i);
+            double queryWeight = query.getWeight(i);
+            CompressedPostingList.Cursor cursor = invertedIndex[query.getTermId(i)].cursor();
+            for (cursor.advance(lo); cursor.docId() < end; cursor.next()) {
+                int docId = cursor.docId();
+                if (isRemoved(query, docId)) {
+                    continue;
+                }
+                if (!visited[docId - lo]) {
+                    visited[docId - lo] = true;
+                    candidates[numCandidates] = docId;
+                    numCandidates++;
+                }
+                scores[docId - lo] += postingWeight(cursor, idf) * queryWeight;
+            }
+        }
+        int scored = 0;
+        for (int i = 0; i < numCandidates; i++) {
+            int docId = candidates[i];
+            double denominator = documentNorm(query, docId) * query.getNorm();
+            if (denominator != 0) {
+                scores[docId - lo] /= denominator;
+                candidates[scored] = docId;
+                scored++;
+            } else {
+                scores[docId - lo] = 0.0;
+            }
+        }
+        return scored;
+    }
+
+    /**
+     * Returns how many documents a top-k search of [lo, hi) can return at
+     * most: no more than k, than the live documents in the range, or than the
+     * query words' postings hold. The result heap is sized by this rather
+     * than by k, which callers may pass as large as Integer.MAX_VALUE to get
+     * every result.
+     */
+    private int maxResults(PreparedQuery query, int k, int lo, int hi) {
+        long postings = 0;
+        for (int i = 0; i < query.size(); i++) {
+            postings += invertedIndex[query.getTermId(i)].size();
+        }
+        return (int) Math.min(Math.min(k, postings), Math.min(hi - lo, liveDocuments(query)));
+    }
+
+    /**
+     * Orders two documents by URI, so the heaps of the search methods break
+     * ties between equal scores the same way SearchResult does.
+     */
+    private int compareUris(int docIdA, int docIdB) {
+        return documents.getUri(docIdA).compareTo(documents.getUri(docIdB));
+    }
+
+    private void checkOwner(PreparedQuery query) {
+        if (query == null || query.getAnalyzer() != this) {
+            throw new IllegalArgumentException("Query was not prepared by this analyzer");
+        }
+    }
+
+    /**
+     * Returns the number of document ids the given query may match: all of
+     * them, unless it was prepared against a snapshot.
+     */
+    private int visibleDocuments(PreparedQuery query) {
+        IdfSnapshot querySnapshot = query.getSnapshot();
+        return querySnapshot != null ? querySnapshot.getDocumentCount() : documents.size();
+    }
+
+    /**
+     * Returns the number of pages the given query may match: those that are
+     * indexed, or were when its snapshot was taken.
+     */
+    private int liveDocuments(PreparedQuery query) {
+        IdfSnapshot querySnapshot = query.getSnapshot();
+        return querySnapshot != null ? querySnapshot.getLiveDocuments() : documents.liveSize();
+    }
+
+    private boolean isRemoved(PreparedQuery query, int docId) {
+        IdfSnapshot querySnapshot = query.getSnapshot();
+        return querySnapshot != null ? querySnapshot.isRemoved(docId) : removed[docId];
+    }
+
+    private double documentNorm(PreparedQuery query, int docId) {
+        IdfSnapshot querySnapshot = query.getSnapshot();
+        return querySnapshot != null ? querySnapshot.getNorm(docId) : documentNorms[docId];
+    }
+
+    private double termUpperBound(PreparedQuery query, int termId) {
+        IdfSnapshot querySnapshot = query.getSnapshot();
+        return querySnapshot != null ? querySnapshot.getTermUpperBound(termId) : termUpperBounds[termId];
+    }
+
+    /**
+     * Returns the current IDF score of the given term. Must only be called for
+     * terms contained in at least one document.
+     */
+    private double idf(int termId) {
+        return Math.log((double) idfDocumentCount() / idfFrequency(termId));
+    }
+
+    /**
+     * Returns the number of documents IDF scores are computed against: the
+     * whole corpus's with global statistics, or else this analyzer's.
+     */
+    private int idfDocumentCount() {
+        return globalStatistics != null ? globalStatistics.getDocumentCount() : documents.liveSize();
+    }
+
+    /**
+     * Returns the document frequency the IDF score of the given term is
+     * computed from: the global one, if known, or else this analyzer's.
+     */
+    private int idfFrequency(int termId) {
+        if (globalFrequencies != null && termId < globalFrequencies.length && globalFrequencies[termId] > 0) {
+            return globalFrequencies[termId];
+        }
+        return documentFrequencies[termId];
+    }
+
+    /**
+     * Returns the given document frequencies (by term id), with the global
+     * ones substituted wherever they are known.
+     */
+    private int[] idfFrequencies(int[] frequencies) {
+        if (globalFrequencies == null) {
+            return frequencies;
+        }
+        int[] output = Arrays.copyOf(frequencies, frequencies.length);
+        for (int termId = 0; termId < Math.min(output.length, globalFrequencies.length); termId++) {
+            if (globalFrequencies[termId] > 0) {
+                output[termId] = globalFrequencies[termId];
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Looks up the global document frequency of every term that got an id
+     * since this was last called. Must be called while holding the write lock.
+     */
+    private void syncGlobalFrequencies() {
+        if (globalStatistics == null || globalFrequencies.length == terms.size()) {
+            return;
+        }
+        int start = globalFrequencies.length;
+        globalFrequencies = Arrays.copyOf(globalFrequencies, terms.size());
+        for (int termId = start; termId < globalFrequencies.length; termId++) {
+            globalFrequencies[termId] = globalStatistics.getDocumentFrequency(terms.getTerm(termId));
+        }
+    }
+
+    /**
+     * Returns the TF-IDF weight, given the term's IDF, of the term in the
+     * document the cursor is on.
+     */
+    private double postingWeight(CompressedPostingList.Cursor cursor, double idf) {
+        return IndexBuilder.weight(cursor.count(), documentLengths[cursor.docId()], idf);
+    }
+
+    /**
+     * Indexes a new page: assigns it a document id, records its term counts,
+     * appends it to the postings of its terms and computes its norm with the
+     * current IDF scores. Must be called while holding the write lock.
+     */
+    private void addDocument(Webpage page) {
+        int docId = documents.add(page.getUri());
+        IList<String> words = page.getWords();
+        int length = words.size();
+        int[] wordTermIds = IndexBuilder.termIds(words, terms);
+        // countIds(...) sorts its input, and the positional index needs the
+        // words in order.
+        int[][] counted = IndexBuilder.countIds(
+                positions != null ? wordTermIds.clone() : wordTermIds, length);
+        int[] termIds = counted[0];
+        int[] counts = counted[1];
+        ensureDocumentCapacity(docId + 1);
+        ensureTermCapacity(terms.size());
+        syncGlobalFrequencies();
+
+        documentTermIds[docId] = termIds;
+        documentTermCounts[docId] = counts;
+        documentLengths[docId] = length;
+        removed[docId] = false;
+        for (int termId : termIds) {
+            documentFrequencies[termId]++;
+        }
+
+        double sum = 0.0;
+        for (int i = 0; i < termIds.length; i++) {
+            double weight = IndexBuilder.weight(counts[i], length, idf(termIds[i]));
+            sum += weight * weight;
+        }
+        double norm = Math.sqrt(sum);
+        documentNorms[docId] = norm;
+
+        for (int i = 0; i < termIds.length; i++) {
+            invertedIndex[termIds[i]].add(docId, counts[i]);
+            if (norm != 0) {
+                double bound = counts[i] / (double) length / norm;
+                termUpperBounds[termIds[i]] = Math.max(termUpperBounds[termIds[i]], bound);
+            }
+        }
+        if (positions != null) {
+            positions.addDocument(docId, wordTermIds);
+        }
+    }
+
+    /**
+     * Removes a page from the index. Its postings stay behind (and are skipped)
+     * until the next norm refresh. Must be called while holding the write lock.
+     *
+     * With snapshot isolation, queries keep scoring the page until the next
+     * snapshot is published, so its term counts are only dropped along with
+     * its postings (see dropTermCounts(...)).
+     */
+    private void removeDocument(URI pageUri) {
+        int docId = documents.remove(pageUri);
+        for (int termId : documentTermIds[docId]) {
+            documentFrequencies[termId]--;
+        }
+        removed[docId] = true;
+        if (!snapshotIsolation) {
+            documentTermIds[docId] = null;
+            documentTermCounts[docId] = null;
+        }
+        removedSinceCompaction++;
+        if (positions != null) {
+            positions.removeDocument(docId, id -> !removed[id]);
+        }
+    }
+
+    // Called while holding the write lock, after anything that may change
+    // search results.
+    private void invalidateResults() {
+        QueryResultCache cache = resultCache;
+        if (cache != null) {
+            cache.invalidate();
+        }
+    }
+
+    private void refreshNormsIfNeeded() {
+        if (snapshotIsolation) {
+            scheduleSnapshot();
+            return;
+        }
+        if (changesSinceNormRefresh > normRefreshThreshold * Math.max(1, documentsAtNormRefresh)) {
+            refreshNorms();
+        }
+    }
+
+    private void ensureDocumentCapacity(int capacity) {
+        if (capacity > documentLengths.length) {
+            int newCapacity = Math.max(capacity, Math.max(16, documentLengths.length * 2));
+            documentTermIds = Arrays.copyOf(documentTermIds, newCapacity);
+            documentTermCounts = Arrays.copyOf(documentTermCounts, newCapacity);
+            documentLengths = Arrays.copyOf(documentLengths, newCapacity);
+            removed = Arrays.copyOf(removed, newCapacity);
+            documentNorms = Arrays.copyOf(documentNorms, newCapacity);
+        }
+    }
+
+    private void ensureTermCapacity(int capacity) {
+        if (capacity > documentFrequencies.length) {
+            int oldCapacity = documentFrequencies.length;
+            int newCapacity = Math.max(capacity, Math.max(16, oldCapacity * 2));
+            documentFrequencies = Arrays.copyOf(documentFrequencies, newCapacity);
+            termUpperBounds = Arrays.copyOf(termUpperBounds, newCapacity);
+            invertedIndex = Arrays.copyOf(invertedIndex, newCapacity);
+            for (int termId = oldCapacity; termId < newCapacity; termId++) {
+                invertedIndex[termId] = new CompressedPostingList();
+            }
+        }
+    }
+
+    /**
+     * Returns the postings of every term (for every term id below the current
+     * capacity), built from the term counts of every non-removed document.
+     * Since documents are visited in id order, every posting list is sorted by
+     * document id.
+     */
+    private CompressedPostingList[] buildInvertedIndex() {
+        CompressedPostingList[] index = new CompressedPostingList[documentFrequencies.length];
+        for (int termId = 0; termId < index.length; termId++) {
+            index[termId] = new CompressedPostingList();
+        }
+        for (int docId = 0; docId < documents.size(); docId++) {
+            if (removed[docId]) {
+                continue;
+            }
+            int[] termIds = documentTermIds[docId];
+            int[] counts = documentTermCounts[docId];
+            for (int i = 0; i < termIds.length; i++) {
+                index[termIds[i]].add(docId, counts[i]);
+            }
+        }
+        for (CompressedPostingList postings : index) {
+            postings.trimToSize();
+        }
+        return index;
+    }
+
+    private double[] computeTermUpperBounds() {
+        double[] bounds = new double[invertedIndex.length];
+        for (int termId = 0; termId < invertedIndex.length; termId++) {
+            bounds[termId] = computeTermUpperBound(termId, documentNorms, documents.size());
+        }
+        return bounds;
+    }
+
+    /**
+     * Returns the largest value of tf / norm over the postings of the given
+     * term, with the given norms, among the non-removed documents with ids
+     * below documentCount.
+     */
+    private double computeTermUpperBound(int termId, double[] norms, int documentCount) {
+        double output = 0.0;
+        for (CompressedPostingList.Cursor cursor = invertedIndex[termId].cursor();
+                cursor.docId() < documentCount; cursor.next()) {
+            int docId = cursor.docId();
+            double norm = norms[docId];
+            if (!removed[docId] && norm != 0) {
+                double bound = cursor.count() / (double) documentLengths[docId] / norm;
+                output = Math.max(output, bound);
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Drops the term counts of every document with an id below 'end' that
+     * 'isRemoved' accepts, once the postings were compacted without them.
+     * Must be called while holding the write lock.
+     */
+    private void dropTermCounts(int end, IntPredicate isRemoved) {
+        for (int docId = 0; docId < end; docId++) {
+            if (isRemoved.test(docId)) {
+                documentTermIds[docId] = null;
+                documentTermCounts[docId] = null;
+            }
+        }
+    }
+
+    /**
+     * Starts a background thread publishing a snapshot of the current state,
+     * unless one is already running, in which case it will build another one
+     * once it's done with the current one.
+     */
+    private void scheduleSnapshot() {
+        synchronized (snapshotMonitor) {
+            snapshotStale = true;
+            if (snapshotRunning) {
+                return;
+            }
+            snapshotRunning = true;
+        }
+        Thread publisher = new Thread(this::publishSnapshots, "idf-snapshot");
+        publisher.setDaemon(true);
+        publisher.start();
+    }
+
+    private void publishSnapshots() {
+        boolean done = false;
+        try {
+            while (!done) {
+                synchronized (snapshotMonitor) {
+                    done = !snapshotStale;
+                    snapshotStale = false;
+                }
+                if (!done) {
+                    publishSnapshot();
+                }
+            }
+        } finally {
+            synchronized (snapshotMonitor) {
+                snapshotRunning = false;
+                snapshotStale = false;
+                snapshotMonitor.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Builds the next snapshot while only holding the read lock, so queries
+     * keep running, then publishes it. Postings of removed pages are compacted
+     * the same way once there are enough of them.
+     */
+    private void publishSnapshot() {
+        IdfSnapshot previous;
+        IdfSnapshot next;
+        CompressedPostingList[] index;
+        CompressedPostingList[] compacted = null;
+        int compactedDocuments = 0;
+        int compactedRemovals = 0;
+        lock.readLock().lock();
+        try {
+            if (!snapshotIsolation) {
+                return;
+            }
+            previous = snapshot;
+            index = invertedIndex;
+            next = buildSnapshot(previous);
+            if (removedSinceCompaction > normRefreshThreshold * Math.max(1, documents.liveSize())) {
+                compacted = buildInvertedIndex();
+                compactedDocuments = documents.size();
+                compactedRemovals = removedSinceCompaction;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        lock.writeLock().lock();
+        try {
+            // refreshNorms() or setSnapshotIsolation(...) may have published a
+            // newer snapshot (or rebuilt the postings) in the meantime.
+            if (snapshot != previous || !snapshotIsolation) {
+                return;
+            }
+            if (compacted != null && invertedIndex == index) {
+                int oldLength = compacted.length;
+                compacted = Arrays.copyOf(compacted, invertedIndex.length);
+                for (int termId = oldLength; termId < compacted.length; termId++) {
+                    compacted[termId] = new CompressedPostingList();
+                }
+                // Pages added while we were compacting.
+                for (int docId = compactedDocuments; docId < documents.size(); docId++) {
+                    if (removed[docId]) {
+                        continue;
+                    }
+                    int[] termIds = documentTermIds[docId];
+                    int[] counts = documentTermCounts[docId];
+                    for (int i = 0; i < termIds.length; i++) {
+                        compacted[termIds[i]].add(docId, counts[i]);
+                    }
+                }
+                invertedIndex = compacted;
+                dropTermCounts(compactedDocuments, next::isRemoved);
+                removedSinceCompaction -= compactedRemovals;
+            }
+            snapshot = next;
+            invalidateResults();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns a snapshot of the current IDF scores, norms and upper bounds.
+     * Only the norms of documents whose terms' IDF scores changed since the
+     * previous snapshot (if any) are recomputed. Must be called while holding
+     * the read or write lock.
+     */
+    private IdfSnapshot buildSnapshot(IdfSnapshot previous) {
+        int documentCount = documents.size();
+        int liveDocuments = documents.liveSize();
+        int[] frequencies = Arrays.copyOf(documentFrequencies, terms.size());
+        double[] idfScores = IndexBuilder.computeIdfScores(idfFrequencies(frequencies), idfDocumentCount());
+
+        // If the number of pages (or the global statistics) changed, so did
+        // every IDF score. Otherwise, only the terms whose document frequency
+        // changed have a new IDF score.
+        boolean everything = previous == null || previous.getLiveDocuments() != liveDocuments
+                || previous.getStatistics() != globalStatistics;
+        double[] norms = new double[documentCount];
+        boolean[] affected = new boolean[documentCount];
+        if (everything) {
+            Arrays.fill(affected, true);
+        } else {
+            for (int docId = 0; docId < documentCount; docId++) {
+                if (docId < previous.getDocumentCount()) {
+                    norms[docId] = previous.getNorm(docId);
+                } else {
+                    affected[docId] = true;
+                }
+            }
+            for (int termId = 0; termId < previous.getTermCount(); termId++) {
+                if (frequencies[termId] != previous.getDocumentFrequency(termId)) {
+                    for (CompressedPostingList.Cursor cursor = invertedIndex[termId].cursor();
+                            cursor.docId() < documentCount; cursor.next()) {
+                        affected[cursor.docId()] = true;
+                    }
+                }
+            }
+        }
+
+        // A term's upper bound only changes if the norm of a document
+        // containing it does.
+        double[] bounds = new double[frequencies.length];
+        boolean[] staleBounds = new boolean[frequencies.length];
+        if (everything) {
+            Arrays.fill(staleBounds, true);
+        } else {
+            for (int termId = 0; termId < previous.getTermCount(); termId++) {
+                bounds[termId] = previous.getTermUpperBound(termId);
+            }
+            for (int termId = previous.getTermCount(); termId < frequencies.length; termId++) {
+                staleBounds[termId] = true;
+            }
+        }
+        for (int docId = 0; docId < documentCount; docId++) {
+            if (affected[docId] && !removed[docId]) {
+                norms[docId] = IndexBuilder.norm(documentTermIds[docId], documentTermCounts[docId],
+                        documentLengths[docId], idfScores);
+                for (int termId : documentTermIds[docId]) {
+                    staleBounds[termId] = true;
+                }
+            }
+        }
+        for (int termId = 0; termId < frequencies.length; termId++) {
+            if (staleBounds[termId]) {
+                bounds[termId] = computeTermUpperBound(termId, norms, documentCount);
+            }
+        }
+
+        long version = previous != null ? previous.getVersion() + 1 : 0;
+        return new IdfSnapshot(version, documentCount, liveDocuments, frequencies, idfScores, norms,
+                Arrays.copyOf(removed, documentCount), bounds, globalStatistics);
+    }
+
+    private static long fingerprintFolder(File folder, String prefix, long hash) throws IOException {
+        File[] children = folder.listFiles();
+        if (children == null) {
+            throw new IOException("Could not list " + folder);
+        }
+        Arrays.sort(children);
+        for (File child : children) {
+            String path = prefix + child.getName();
+            if (child.isDirectory()) {
+                hash = fingerprintFolder(child, path + "/", hash);
+            } else if (!path.endsWith(".cache")) {
+                for (int i = 0; i < path.length(); i++) {
+                    hash = fingerprintStep(hash, path.charAt(i));
+                }
+                hash = fingerprintStep(hash, child.length());
+                hash = fingerprintStep(hash, child.lastModified());
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Mixes the given value into the hash, one byte at a time (64-bit FNV-1a).
+     */
+    private static long fingerprintStep(long hash, long value) {
+        for (int i = 0; i < 8; i++) {
+            hash ^= (value >>> (8 * i)) & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
 }
@@ -0,0 +1,102 @@
+package search.models;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns the words of every loaded webpage: assigns each distinct word a
+ * dense integer id, starting from 0, in the order the words are first seen,
+ * and keeps a single copy of its string.
+ *
+ * Pages store their words as TokenLists of these ids, so a word that appears
+ * in thousands of pages (or thousands of times in one page) costs 4 bytes per
+ * occurrence rather than a list node plus a String.
+ *
+ * Unlike TermDictionary, this is thread-safe, since pages are loaded in
+ * parallel. Looking up a word that already has an id takes no lock. Ids are
+ * never released, so the dictionary grows with the vocabulary of every page
+ * ever loaded.
+ */
+public final class TokenDictionary {
+    private static final TokenDictionary SHARED = new TokenDictionary();
+
+    private final ConcurrentHashMap<String, Integer> ids;
+    // Replaced (never modified in place below 'size') whenever it grows, and
+    // always written before the new id is published in 'ids', so anyone who
+    // was handed an id can read its token without locking.
+    private volatile String[] tokens;
+    private int size;
+
+    public TokenDictionary() {
+        this.ids = new ConcurrentHashMap<>();
+        this.tokens = new String[16];
+        this.size = 0;
+    }
+
+    /**
+     * Returns the dictionary every loaded webpage shares.
+     */
+    public static TokenDictionary shared() {
+        return SHARED;
+    }
+
+    /**
+     * Returns the id of the given word, assigning it the next free id if it
+     * has not been seen before.
+     *
+     * @throws IllegalArgumentException  if the word is null
+     */
+    public int getOrAssignId(String token) {
+        if (token == null) {
+            throw new IllegalArgumentException();
+        }
+        Integer id = ids.get(token);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(token);
+            if (id != null) {
+                return id;
+            }
+            String[] current = tokens;
+            if (size == current.length) {
+                String[] newTokens = new String[size * 2];
+                System.arraycopy(current, 0, newTokens, 0, size);
+                current = newTokens;
+            }
+            current[size] = token;
+            tokens = current;
+            ids.put(token, size);
+            size++;
+            return size - 1;
+        }
+    }
+
+    /**
+     * Returns the id of the given word, or -1 if the word has no id.
+     */
+    public int getId(String token) {
+        if (token == null) {
+            return -1;
+        }
+        Integer id = ids.get(token);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Returns the word with the given id.
+     *
+     * @throws IndexOutOfBoundsException  if no word has the given id
+     */
+    public String getToken(int id) {
+        String[] current = tokens;
+        if (id < 0 || id >= current.length || current[id] == null) {
+            throw new IndexOutOfBoundsException();
+        }
+        return current[id];
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+}
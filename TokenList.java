@@ -0,0 +1,248 @@
+package search.models;
+
+import datastructures.interfaces.IList;
+import misc.exceptions.EmptyContainerException;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * The words of a webpage, stored as an array of ids from a TokenDictionary
+ * instead of one list node and one String per word.
+ *
+ * This is a complete IList<String>, so code that only wants the words can
+ * keep treating it as one: get(...) and size() take constant time, and every
+ * word handed out is the dictionary's single copy of it. Code that only needs
+ * to tell words apart (like the indexer) can skip the strings altogether with
+ * getTokenId(...) or tokenIds().
+ *
+ * Words can't be null. Not thread-safe, although a list nobody modifies can
+ * safely be read from any number of threads.
+ */
+public class TokenList implements IList<String> {
+    private final TokenDictionary dictionary;
+    private int[] tokenIds;
+    private int size;
+
+    /**
+     * Creates an empty list of words from the shared TokenDictionary.
+     */
+    public TokenList() {
+        this(TokenDictionary.shared(), 16);
+    }
+
+    /**
+     * Creates an empty list of words from the given dictionary, with room
+     * for 'capacity' words before it needs to grow.
+     */
+    public TokenList(TokenDictionary dictionary, int capacity) {
+        if (dictionary == null || capacity < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.dictionary = dictionary;
+        this.tokenIds = new int[capacity];
+        this.size = 0;
+    }
+
+    /**
+     * Returns the given words as a TokenList of the shared TokenDictionary:
+     * the list itself if it already is one, or else a copy.
+     *
+     * @throws IllegalArgumentException  if any word is null
+     */
+    public static TokenList copyOf(IList<String> words) {
+        if (words instanceof TokenList && ((TokenList) words).dictionary == TokenDictionary.shared()) {
+            return (TokenList) words;
+        }
+        TokenList output = new TokenList(TokenDictionary.shared(), words.size());
+        for (String word : words) {
+            output.add(word);
+        }
+        return output;
+    }
+
+    /**
+     * Returns the dictionary this list's token ids refer to.
+     */
+    public TokenDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Returns the token id of the word at the given index.
+     *
+     * @throws IndexOutOfBoundsException  if the index is out of bounds
+     */
+    public int getTokenId(int index) {
+        checkIndex(index, size);
+        return tokenIds[index];
+    }
+
+    /**
+     * Appends the word with the given token id.
+     *
+     * @throws IndexOutOfBoundsException  if the dictionary has no such id
+     */
+    public void addTokenId(int tokenId) {
+        dictionary.getToken(tokenId);
+        ensureCapacity(size + 1);
+        tokenIds[size] = tokenId;
+        size++;
+    }
+
+    /**
+     * Returns an iterator over the token id of every word, in order, that
+     * doesn't box them or look up their strings.
+     */
+    public PrimitiveIterator.OfInt tokenIds() {
+        return new TokenIdIterator();
+    }
+
+    /**
+     * Releases any spare capacity left over from adding words.
+     */
+    public void trimToSize() {
+        if (tokenIds.length != size) {
+            int[] newTokenIds = new int[size];
+            System.arraycopy(tokenIds, 0, newTokenIds, 0, size);
+            tokenIds = newTokenIds;
+        }
+    }
+
+    @Override
+    public void add(String item) {
+        int tokenId = idOf(item);
+        ensureCapacity(size + 1);
+        tokenIds[size] = tokenId;
+        size++;
+    }
+
+    @Override
+    public String remove() {
+        if (size == 0) {
+            throw new EmptyContainerException();
+        }
+        size--;
+        return dictionary.getToken(tokenIds[size]);
+    }
+
+    @Override
+    public String get(int index) {
+        checkIndex(index, size);
+        return dictionary.getToken(tokenIds[index]);
+    }
+
+    @Override
+    public void set(int index, String item) {
+        checkIndex(index, size);
+        tokenIds[index] = idOf(item);
+    }
+
+    @Override
+    public void insert(int index, String item) {
+        checkIndex(index, size + 1);
+        int tokenId = idOf(item);
+        ensureCapacity(size + 1);
+        System.arraycopy(tokenIds, index, tokenIds, index + 1, size - index);
+        tokenIds[index] = tokenId;
+        size++;
+    }
+
+    @Override
+    public String delete(int index) {
+        checkIndex(index, size);
+        String output = dictionary.getToken(tokenIds[index]);
+        System.arraycopy(tokenIds, index + 1, tokenIds, index, size - index - 1);
+        size--;
+        return output;
+    }
+
+    @Override
+    public int indexOf(String item) {
+        // A word the dictionary has never seen can't be in the list.
+        int tokenId = dictionary.getId(item);
+        if (tokenId != -1) {
+            for (int i = 0; i < size; i++) {
+                if (tokenIds[i] == tokenId) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean contains(String other) {
+        return indexOf(other) != -1;
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return new WordIterator();
+    }
+
+    private int idOf(String item) {
+        if (item == null) {
+            throw new IllegalArgumentException();
+        }
+        return dictionary.getOrAssignId(item);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > tokenIds.length) {
+            int[] newTokenIds = new int[Math.max(capacity, Math.max(16, tokenIds.length * 2))];
+            System.arraycopy(tokenIds, 0, newTokenIds, 0, size);
+            tokenIds = newTokenIds;
+        }
+    }
+
+    private static void checkIndex(int index, int limit) {
+        if (index < 0 || index >= limit) {
+            throw new IndexOutOfBoundsException();
+        }
+    }
+
+    private class WordIterator implements Iterator<String> {
+        private int next = 0;
+
+        @Override
+        public boolean hasNext() {
+            return next < size;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            String output = dictionary.getToken(tokenIds[next]);
+            next++;
+            return output;
+        }
+    }
+
+    private class TokenIdIterator implements PrimitiveIterator.OfInt {
+        private int next = 0;
+
+        @Override
+        public boolean hasNext() {
+            return next < size;
+        }
+
+        @Override
+        public int nextInt() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int output = tokenIds[next];
+            next++;
+            return output;
+        }
+    }
+}
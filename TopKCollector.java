@@ -0,0 +1,72 @@
+package misc;
+
+import datastructures.concrete.ArrayHeap;
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.interfaces.IList;
+
+/**
+ * Keeps the k largest of a stream of items, as they are offered one at a time.
+ *
+ * This is the streaming counterpart of Sorter.topKSort(...): instead of first
+ * collecting every candidate into a list, a scoring loop can offer each one
+ * as soon as it is produced, and only the current top k are ever stored.
+ * Offering an item costs O(log k).
+ */
+public class TopKCollector<T extends Comparable<T>> {
+    private final int k;
+    private final ArrayHeap<T> heap;
+
+    /**
+     * @throws IllegalArgumentException  if k < 0
+     */
+    public TopKCollector(int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.k = k;
+        // We never need contains/remove/replace here, so skip index tracking.
+        this.heap = new ArrayHeap<>(false);
+    }
+
+    /**
+     * Offers an item. Returns true if it is now among the k largest items
+     * offered so far, or false if it was discarded. As with topKSort, an item
+     * equal to the smallest one kept does not replace it.
+     *
+     * @throws IllegalArgumentException  if item is null
+     */
+    public boolean offer(T item) {
+        if (item == null) {
+            throw new IllegalArgumentException();
+        }
+        if (heap.size() < k) {
+            heap.add(item);
+            return true;
+        }
+        if (k > 0 && item.compareTo(heap.peekMin()) > 0) {
+            heap.replaceMin(item);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of items currently kept (at most k).
+     */
+    public int size() {
+        return heap.size();
+    }
+
+    /**
+     * Returns the k largest items offered so far (or all of them, if fewer were
+     * offered), in ascending order, just like topKSort. This empties the
+     * collector, so it can be reused for another stream.
+     */
+    public IList<T> result() {
+        IList<T> output = new DoubleLinkedList<>();
+        while (heap.size() > 0) {
+            output.add(heap.removeMin());
+        }
+        return output;
+    }
+}
@@ -14,15 +14,16 @@ import search.misc.WordTokenizer;
 import search.misc.exceptions.DataExtractionException;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PushbackInputStream;
+import java.io.Reader;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
 import java.util.StringTokenizer;
 
 /**
@@ -45,11 +46,14 @@ public class Webpage {
 
     /**
      * Constructs a new webpage instance.
+     *
+     * The words are kept as a TokenList (copying them into one if needed), so
+     * a page costs 4 bytes per word rather than a list node and a String.
      */
     public Webpage(URI pageUri, IList<URI> links, IList<String> words, String title, String blurb) {
         this.pageUri = pageUri;
         this.links = links;
-        this.words = words;
+        this.words = TokenList.copyOf(words);
         this.summary = new WebpageSummary(pageUri, title, blurb);
     }
 
@@ -104,69 +108,91 @@ public class Webpage {
         URI cacheURI = Webpage.getCacheURI(localUri);
         File cacheFile = new File(cacheURI);
         if (cacheFile.exists()) {
-            return Webpage.loadFromCache(cacheFile);
-        } else {
-            Webpage out = Webpage.loadOriginal(localUri);
-            Webpage.saveToCache(out, cacheFile);
-            return out;
+            Webpage cached = Webpage.loadFromCache(cacheFile);
+            if (cached != null) {
+                return cached;
+            }
         }
+        Webpage out = Webpage.loadOriginal(localUri);
+        Webpage.saveToCache(out, cacheFile);
+        return out;
     }
 
     public static Webpage loadOriginal(URI localUri) {
-        // Extract some core data
         try (PushbackInputStream stream = Webpage.openLocalStream(localUri)) {
-            IDictionary<String, String> metadata = Webpage.extractMetadata(stream);
-            Document document = Webpage.extractHtml(stream, metadata);
-
-            // Save canonical fields
-            URI pageUri = Webpage.createUri(metadata.get("uri"));
-
-            // Populate cache fields
-            IList<URI> links = WebUtils.extractLinks(pageUri, document);
-            IList<String> words = WordTokenizer.extract(document.body().text());
-
-            Article article = Webpage.extractReadableArticle(pageUri, document);
-            String title = Webpage.extractTitle(article, pageUri);
-            String blurb = Webpage.extractBlurb(article);
-
-            return new Webpage(pageUri, links, words, title, blurb);
+            return Webpage.parseOriginal(stream);
         } catch (IOException ex) {
             throw new RuntimeException(ex);
         }
     }
 
-    private static void saveToCache(Webpage page, File cache) {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(cache))) {
-            WebpageSummary summary = page.getSummary();
+    /**
+     * Parses a page from the contents of an original (uncached) local file.
+     */
+    static Webpage parseOriginal(InputStream input) {
+        PushbackInputStream stream = input instanceof PushbackInputStream
+                ? (PushbackInputStream) input
+                : new PushbackInputStream(input);
 
-            // Line 1: page URI
-            writer.write(page.pageUri.toString() + "\n");
+        // Extract some core data
+        IDictionary<String, String> metadata = Webpage.extractMetadata(stream);
+        Document document = Webpage.extractHtml(stream, metadata);
 
-            // Line 2: title
-            writer.write(summary.getTitle() + "\n");
+        // Save canonical fields
+        URI pageUri = Webpage.createUri(metadata.get("uri"));
 
-            // Line 3: blurb
-            writer.write(summary.getBlurb() + "\n");
+        // Populate cache fields
+        IList<URI> links = WebUtils.extractLinks(pageUri, document);
+        IList<String> words = WordTokenizer.extract(document.body().text());
 
-            // Line 4: words
-            for (String word : page.words) {
-                writer.write(word);
-                writer.write(' ');
-            }
-            writer.write('\n');
+        // Must come last: this modifies the document.
+        Article article = Webpage.extractReadableArticle(pageUri, document);
+        String title = Webpage.extractTitle(article, pageUri);
+        String blurb = Webpage.extractBlurb(article);
 
-            // Remaining lines: links
-            for (URI link : page.links) {
-                writer.write(link.toString());
-                writer.write('\n');
-            }
+        return new Webpage(pageUri, links, words, title, blurb);
+    }
+
+    static void saveToCache(Webpage page, File cache) {
+        try {
+            BinaryPageCache.write(page, cache);
         } catch (IOException ex) {
             throw new RuntimeException("Could not create cache", ex);
         }
     }
 
+    /**
+     * Loads a page from its cache file, or returns null if the cache was
+     * written in a format version we no longer understand, or is damaged (in
+     * which case it should be regenerated).
+     *
+     * Caches written before the binary format existed are still read using
+     * the old text format.
+     */
     private static Webpage loadFromCache(File cache) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(cache))) {
+        try {
+            return Webpage.decodeCache(BinaryPageCache.readFile(cache));
+        } catch (IOException ex) {
+            throw new RuntimeException("Could not load cache", ex);
+        }
+    }
+
+    /**
+     * Decodes a page from the contents of a cache file, in either format.
+     * Returns null if the cache needs to be regenerated.
+     */
+    static Webpage decodeCache(ByteBuffer contents) throws IOException {
+        if (BinaryPageCache.isBinary(contents)) {
+            return BinaryPageCache.read(contents);
+        } else {
+            InputStream stream = new ByteArrayInputStream(
+                    contents.array(), contents.arrayOffset() + contents.position(), contents.remaining());
+            return Webpage.loadFromTextCache(new InputStreamReader(stream));
+        }
+    }
+
+    private static Webpage loadFromTextCache(Reader cache) throws IOException {
+        try (BufferedReader reader = new BufferedReader(cache)) {
             // Line 1: Page URI
             URI pageUri = URI.create(reader.readLine().trim());
 
@@ -177,7 +203,7 @@ public class Webpage {
             String blurb = reader.readLine().trim();
 
             // Line 4: words
-            IList<String> words = new DoubleLinkedList<>();
+            TokenList words = new TokenList();
             StringTokenizer tokenizer = new StringTokenizer(reader.readLine().trim(), " ");
             while (tokenizer.hasMoreTokens()) {
                 words.add(tokenizer.nextToken());
@@ -190,12 +216,10 @@ public class Webpage {
             }
 
             return new Webpage(pageUri, links, words, title, blurb);
-        } catch (IOException ex) {
-            throw new RuntimeException("Could not load cache", ex);
         }
     }
 
-    private static URI getCacheURI(URI localUri) {
+    static URI getCacheURI(URI localUri) {
         String raw = localUri.toString();
         String piece = raw.substring(0, raw.lastIndexOf("."));
         return URI.create(piece + ".cache");
@@ -241,9 +265,16 @@ public class Webpage {
         }
     }
 
+    /**
+     * Runs Crux over the already-parsed document instead of serializing it back
+     * to HTML and having Crux parse it a second time.
+     *
+     * Crux cleans up the document in place, so this must run after everything
+     * else that reads the document (links, words).
+     */
     private static Article extractReadableArticle(URI pageUri, Document document) {
         return ArticleExtractor
-                .with(pageUri.toString(), document.html())
+                .with(pageUri.toString(), document)
                 .extractMetadata()
                 .extractContent()
                 .article();
@@ -0,0 +1,300 @@
+package search.models;
+
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.interfaces.IList;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Loads many local webpages at once using a three-stage pipeline:
+ *
+ * 1. A single reader thread reads each page's cache file (or, if it has none,
+ *    the original file) into memory.
+ * 2. Several parser threads decode the cache or parse the original HTML.
+ * 3. A single writer thread saves a cache file for every page that was parsed
+ *    from its original.
+ *
+ * The stages are connected by bounded queues, so a fast reader can't run
+ * arbitrarily far ahead of the parsers and fill the heap with file contents.
+ *
+ * The returned pages are always in the same order as the given URIs, no
+ * matter which parser finished first, so indexing them gives reproducible
+ * results.
+ */
+public class WebpageLoader {
+    // How many items each queue may hold per parser thread.
+    private static final int QUEUE_SLOTS_PER_PARSER = 2;
+
+    // How long a blocked stage waits before checking whether another stage failed.
+    private static final long POLL_MILLIS = 100;
+
+    private static final Task END = new Task(-1, null, null);
+
+    private WebpageLoader() {}
+
+    /**
+     * Loads the pages at the given local URIs, using one parser thread per core.
+     *
+     * @see #loadAll(IList, int)
+     */
+    public static IList<Webpage> loadAll(IList<URI> localUris) {
+        return loadAll(localUris, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Loads the pages at the given local URIs, exactly as Webpage.load(...)
+     * would, and returns them in the same order.
+     *
+     * @throws IllegalArgumentException  if localUris is null or parallelism < 1
+     * @throws RuntimeException          if any page fails to load
+     */
+    public static IList<Webpage> loadAll(IList<URI> localUris, int parallelism) {
+        if (localUris == null || parallelism < 1) {
+            throw new IllegalArgumentException();
+        }
+        URI[] uris = new URI[localUris.size()];
+        int next = 0;
+        for (URI uri : localUris) {
+            uris[next] = uri;
+            next++;
+        }
+
+        Webpage[] results = new Webpage[uris.length];
+        BlockingQueue<Task> parseQueue = new ArrayBlockingQueue<>(parallelism * QUEUE_SLOTS_PER_PARSER);
+        BlockingQueue<Task> writeQueue = new ArrayBlockingQueue<>(parallelism * QUEUE_SLOTS_PER_PARSER);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Thread reader = new Thread(() -> {
+            try {
+                for (int i = 0; i < uris.length && failure.get() == null; i++) {
+                    if (!put(parseQueue, read(i, uris[i]), failure)) {
+                        break;
+                    }
+                }
+            } catch (Throwable ex) {
+                failure.compareAndSet(null, ex);
+            } finally {
+                for (int i = 0; i < parallelism; i++) {
+                    put(parseQueue, END, failure);
+                }
+            }
+        }, "webpage-reader");
+
+        Thread[] parsers = new Thread[parallelism];
+        for (int i = 0; i < parallelism; i++) {
+            parsers[i] = new Thread(() -> {
+                try {
+                    for (Task task = take(parseQueue, failure); task != END; task = take(parseQueue, failure)) {
+                        results[task.index] = parse(task);
+                        if (task.page != null && !put(writeQueue, task, failure)) {
+                            break;
+                        }
+                    }
+                } catch (Throwable ex) {
+                    failure.compareAndSet(null, ex);
+                }
+            }, "webpage-parser-" + i);
+        }
+
+        Thread writer = new Thread(() -> {
+            try {
+                for (Task task = take(writeQueue, failure); task != END; task = take(writeQueue, failure)) {
+                    Webpage.saveToCache(task.page, task.cacheFile);
+                }
+            } catch (Throwable ex) {
+                failure.compareAndSet(null, ex);
+            }
+        }, "webpage-cache-writer");
+
+        reader.start();
+        for (Thread parser : parsers) {
+            parser.start();
+        }
+        writer.start();
+
+        try {
+            reader.join();
+            for (Thread parser : parsers) {
+                parser.join();
+            }
+            put(writeQueue, END, failure);
+            writer.join();
+        } catch (InterruptedException ex) {
+            failure.compareAndSet(null, ex);
+            reader.interrupt();
+            for (Thread parser : parsers) {
+                parser.interrupt();
+            }
+            writer.interrupt();
+            Thread.currentThread().interrupt();
+        }
+
+        if (failure.get() != null) {
+            throw new RuntimeException("Could not load webpages", failure.get());
+        }
+        IList<Webpage> output = new DoubleLinkedList<>();
+        for (Webpage page : results) {
+            output.add(page);
+        }
+        return output;
+    }
+
+    /**
+     * Loads the pages at the given local URIs, like loadAll(localUris), but
+     * from a single CorpusSegment file rather than one cache file per page,
+     * which saves opening, reading and closing a file for every page.
+     *
+     * If segmentFile holds a segment written with the given fingerprint and
+     * as many pages as there are URIs, every page is read from it. Otherwise
+     * (including if it is corrupt), the pages are loaded as usual, and then
+     * written to a new segment for next time. The fingerprint must change
+     * whenever any of the pages do (e.g. TfIdfAnalyzer.corpusFingerprint(...)
+     * of the folder holding them), and the URIs must come in the same order
+     * every time.
+     *
+     * @throws IllegalArgumentException  if localUris or segmentFile is null
+     * @throws RuntimeException          if any page fails to load, or the
+     *                                   segment can't be written
+     */
+    public static IList<Webpage> loadAll(IList<URI> localUris, File segmentFile, long fingerprint) {
+        if (localUris == null || segmentFile == null) {
+            throw new IllegalArgumentException();
+        }
+        if (segmentFile.exists()) {
+            IList<Webpage> pages = readSegment(segmentFile, fingerprint, localUris.size());
+            if (pages != null) {
+                return pages;
+            }
+        }
+        IList<Webpage> pages = loadAll(localUris);
+        try {
+            CorpusSegment.write(segmentFile, fingerprint, pages);
+        } catch (IOException ex) {
+            throw new RuntimeException("Could not write corpus segment", ex);
+        }
+        return pages;
+    }
+
+    /**
+     * Returns every page of the given segment, or null if it was written for
+     * other pages or is corrupt.
+     */
+    private static IList<Webpage> readSegment(File segmentFile, long fingerprint, int count) {
+        try {
+            CorpusSegment segment = CorpusSegment.open(segmentFile);
+            if (segment.getFingerprint() != fingerprint || segment.size() != count) {
+                return null;
+            }
+            IList<Webpage> pages = new DoubleLinkedList<>();
+            for (int i = 0; i < count; i++) {
+                pages.add(segment.read(i));
+            }
+            return pages;
+        } catch (IOException ex) {
+            // A corrupt segment is simply rewritten.
+            return null;
+        }
+    }
+
+    /**
+     * Reader stage: reads the cache file of the given page if there is one,
+     * and the original file otherwise.
+     */
+    private static Task read(int index, URI localUri) throws Exception {
+        File cacheFile = new File(Webpage.getCacheURI(localUri));
+        Task task = new Task(index, localUri, cacheFile);
+        if (cacheFile.exists()) {
+            task.cached = true;
+            task.contents = BinaryPageCache.readFile(cacheFile);
+        } else {
+            task.contents = BinaryPageCache.readFile(new File(localUri));
+        }
+        return task;
+    }
+
+    /**
+     * Parse stage: turns the contents read by the reader stage into a page. If
+     * the page had to be parsed from its original, also stores it in the task
+     * so the writer stage caches it.
+     */
+    private static Webpage parse(Task task) throws Exception {
+        Webpage page = null;
+        if (task.cached) {
+            page = Webpage.decodeCache(task.contents);
+        }
+        if (page == null) {
+            if (task.cached) {
+                // The cache is from an old format version, or damaged: start
+                // from the original.
+                task.contents = BinaryPageCache.readFile(new File(task.localUri));
+            }
+            ByteBuffer contents = task.contents;
+            page = Webpage.parseOriginal(new ByteArrayInputStream(
+                    contents.array(), contents.arrayOffset() + contents.position(), contents.remaining()));
+            task.page = page;
+        }
+        task.contents = null;
+        return page;
+    }
+
+    /**
+     * Adds the item to the queue, waiting for space if needed. Gives up and
+     * returns false if some stage has failed in the meantime.
+     */
+    private static boolean put(BlockingQueue<Task> queue, Task item, AtomicReference<Throwable> failure) {
+        try {
+            while (!queue.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (failure.get() != null) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (InterruptedException ex) {
+            failure.compareAndSet(null, ex);
+            return false;
+        }
+    }
+
+    /**
+     * Removes and returns the next item of the queue, waiting for one if
+     * needed. Returns END if some stage has failed in the meantime.
+     */
+    private static Task take(BlockingQueue<Task> queue, AtomicReference<Throwable> failure)
+            throws InterruptedException {
+        while (true) {
+            Task task = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            if (task != null) {
+                return task;
+            }
+            if (failure.get() != null) {
+                return END;
+            }
+        }
+    }
+
+    /**
+     * A single page moving through the pipeline.
+     */
+    private static class Task {
+        private final int index;
+        private final URI localUri;
+        private final File cacheFile;
+        private boolean cached;
+        private ByteBuffer contents;
+        private Webpage page;
+
+        Task(int index, URI localUri, File cacheFile) {
+            this.index = index;
+            this.localUri = localUri;
+            this.cacheFile = cacheFile;
+        }
+    }
+}